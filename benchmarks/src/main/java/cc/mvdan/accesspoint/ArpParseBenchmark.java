@@ -0,0 +1,112 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// ArpParseBenchmark reads ARP tables of various sizes, taken from the
+// fixtures/arp-<rows>.txt files. About 5% of the rows are incomplete and
+// another 5% belong to a device other than wlan0.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ArpParseBenchmark {
+
+	private static final String DEVICE = "wlan0";
+
+	@Param({ "10", "1000", "10000" })
+	public int rows;
+
+	private File file;
+	private ArpParser parser;
+	private final Counter counter = new Counter();
+
+	private static final class Counter implements ArpParser.Visitor {
+
+		long sum;
+
+		public void visit(int device, int ipAddr, long hwAddr, int flags) {
+			sum += ipAddr ^ hwAddr ^ flags;
+		}
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		file = Fixtures.extract("arp-" + rows + ".txt");
+		parser = new ArpParser(file.getPath(), DEVICE);
+	}
+
+	@TearDown
+	public void tearDown() {
+		parser.close();
+		file.delete();
+	}
+
+	// parse is the in-place parser that the library uses.
+	@Benchmark
+	public long parse() throws IOException {
+		counter.sum = 0;
+		parser.parse(counter);
+		return counter.sum;
+	}
+
+	// parseSplit is the original implementation of getClients, which
+	// splits every line with a regular expression and builds strings. It
+	// is kept as a baseline.
+	@Benchmark
+	public List<String[]> parseSplit() throws IOException {
+		List<String[]> result = new ArrayList<>();
+		Pattern macPattern = Pattern.compile("..:..:..:..:..:..");
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				String[] parts = line.split(" +");
+				if (parts.length < 6) {
+					continue;
+				}
+				if (!parts[5].equals(DEVICE)) {
+					continue;
+				}
+				if (!macPattern.matcher(parts[3]).find()) {
+					continue;
+				}
+				result.add(new String[] { parts[0], parts[3] });
+			}
+		} finally {
+			br.close();
+		}
+		return result;
+	}
+}
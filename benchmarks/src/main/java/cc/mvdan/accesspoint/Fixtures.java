@@ -0,0 +1,55 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Fixtures extracts the checked-in fixture files to temporary files, since
+// the parsers read from a path like they would from /proc.
+final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	static File extract(String name) throws IOException {
+		InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+		if (in == null) {
+			throw new IOException("missing fixture: " + name);
+		}
+		File f = File.createTempFile("fixture-", "-" + name);
+		f.deleteOnExit();
+		try {
+			OutputStream out = new FileOutputStream(f);
+			try {
+				byte[] buf = new byte[8192];
+				int n;
+				while ((n = in.read(buf)) > 0) {
+					out.write(buf, 0, n);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+		return f;
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// InvokeBenchmark measures the reflective path used to call the hidden
+// WifiManager methods. Target stands in for WifiManager, which is not
+// available on a plain JVM.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InvokeBenchmark {
+
+	public static class Target {
+
+		private int state = 13;
+
+		public int getWifiApState() {
+			return state;
+		}
+	}
+
+	private final Target target = new Target();
+	private Invoker invoker;
+	private Method plainMethod;
+
+	@Setup
+	public void setup() throws NoSuchMethodException {
+		invoker = new Invoker(Target.class, "getWifiApState");
+		invoker.get();
+		plainMethod = Target.class.getDeclaredMethod("getWifiApState");
+	}
+
+	// direct is the cost of the call without reflection, as a floor.
+	@Benchmark
+	public int direct() {
+		return target.getWifiApState();
+	}
+
+	// invoker is the current path: a cached, accessible Method and a
+	// shared empty argument array.
+	@Benchmark
+	public Object invoker() throws IllegalAccessException, InvocationTargetException {
+		return invoker.invoke(target);
+	}
+
+	// varargs is the original path, which passed a new empty array on
+	// every call through invokeQuietly.
+	@Benchmark
+	public Object varargs() throws IllegalAccessException, InvocationTargetException {
+		return invokeVarargs(plainMethod, target);
+	}
+
+	private static Object invokeVarargs(Method method, Object receiver, Object... args)
+			throws IllegalAccessException, InvocationTargetException {
+		return method.invoke(receiver, args);
+	}
+
+	// lookupScan is the original one-off lookup, which walked all the
+	// declared methods of the class. String stands in for WifiManager as
+	// a class with many methods.
+	@Benchmark
+	public Method lookupScan() {
+		for (Method m : String.class.getDeclaredMethods()) {
+			if (m.getName().equals("isEmpty")) {
+				return m;
+			}
+		}
+		return null;
+	}
+
+	// lookupExact is the one-off lookup that Invoker does instead.
+	@Benchmark
+	public Method lookupExact() {
+		return new Invoker(String.class, "isEmpty").get();
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// ProbeBenchmark sweeps a set of loopback addresses, 127.0.0.2 and up, with
+// each of the probers. A listener on all addresses accepts the TCP probes.
+// This needs Linux, where all of 127.0.0.0/8 is routed to the loopback
+// interface.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProbeBenchmark {
+
+	private static final int TIMEOUT = 1000;
+
+	@Param({ "10", "100" })
+	public int clients;
+
+	private ServerSocket server;
+	private Thread acceptor;
+	private String[] addrs;
+	private NioProber nio;
+	private ProbeScheduler pool;
+
+	@Setup
+	public void setup() throws IOException {
+		server = new ServerSocket(0, 1024, InetAddress.getByName("0.0.0.0"));
+		acceptor = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (;;) {
+						Socket s = server.accept();
+						s.close();
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+		addrs = new String[clients];
+		for (int i = 0; i < clients; i++) {
+			int host = i + 2;
+			addrs[i] = "127.0." + (host / 256) + "." + (host % 256);
+		}
+		nio = new NioProber(new int[] { server.getLocalPort() }, NioProber.UDP_PORT);
+		pool = new ProbeScheduler(ProbeScheduler.DEFAULT_THREADS);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		nio.close();
+		pool.close();
+		server.close();
+	}
+
+	@Benchmark
+	public int nio() throws InterruptedException {
+		return sweep(nio);
+	}
+
+	@Benchmark
+	public int isReachable() throws InterruptedException {
+		return sweep(pool);
+	}
+
+	private int sweep(Prober prober) throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(addrs.length);
+		final AtomicInteger reachable = new AtomicInteger();
+		for (String addr : addrs) {
+			prober.probe(addr, TIMEOUT, new Prober.Callback() {
+				public void onProbeResult(boolean ok, long rtt) {
+					if (ok) {
+						reachable.incrementAndGet();
+					}
+					done.countDown();
+				}
+			});
+		}
+		done.await();
+		return reachable.get();
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+// Addresses converts IPv4 and MAC addresses between their text form and
+// their packed form. An IPv4 address is packed big-endian into an int, so
+// 192.168.43.1 is 0xc0a82b01. A MAC is packed big-endian into the lower 48
+// bits of a long, so it is never negative.
+final class Addresses {
+
+	private Addresses() {
+	}
+
+	// parseIpv4 decodes a dotted-quad address, returning -1 if it is not
+	// valid.
+	static long parseIpv4(byte[] b, int pos, int end) {
+		long addr = 0;
+		int octets = 0;
+		while (octets < 4) {
+			int start = pos;
+			int octet = 0;
+			while (pos < end && pos - start < 3 && b[pos] >= '0' && b[pos] <= '9') {
+				octet = octet * 10 + (b[pos] - '0');
+				pos++;
+			}
+			if (pos == start || octet > 255) {
+				return -1;
+			}
+			addr = (addr << 8) | octet;
+			octets++;
+			if (octets < 4) {
+				if (pos == end || b[pos] != '.') {
+					return -1;
+				}
+				pos++;
+			}
+		}
+		if (pos != end) {
+			return -1;
+		}
+		return addr;
+	}
+
+	// parseMac decodes a colon-separated MAC address, returning -1 if it
+	// is not valid.
+	static long parseMac(byte[] b, int pos, int end) {
+		if (end - pos != 17) {
+			return -1;
+		}
+		long addr = 0;
+		for (int i = 0; i < 6; i++) {
+			int hi = hexDigit(b[pos]);
+			int lo = hexDigit(b[pos + 1]);
+			if (hi < 0 || lo < 0) {
+				return -1;
+			}
+			addr = (addr << 8) | (hi << 4) | lo;
+			pos += 2;
+			if (i < 5) {
+				if (b[pos] != ':') {
+					return -1;
+				}
+				pos++;
+			}
+		}
+		return addr;
+	}
+
+	// parseIpv4 is like parseIpv4(byte[], int, int), for a String.
+	static long parseIpv4(String s) {
+		byte[] b = ascii(s);
+		if (b == null) {
+			return -1;
+		}
+		return parseIpv4(b, 0, b.length);
+	}
+
+	// parseMac is like parseMac(byte[], int, int), for a String. Dashes
+	// are accepted as separators too.
+	static long parseMac(String s) {
+		byte[] b = ascii(s);
+		if (b == null) {
+			return -1;
+		}
+		for (int i = 2; i < b.length; i += 3) {
+			if (b[i] == '-') {
+				b[i] = ':';
+			}
+		}
+		return parseMac(b, 0, b.length);
+	}
+
+	private static byte[] ascii(String s) {
+		if (s == null) {
+			return null;
+		}
+		byte[] b = new byte[s.length()];
+		for (int i = 0; i < b.length; i++) {
+			char c = s.charAt(i);
+			if (c > 0x7f) {
+				return null;
+			}
+			b[i] = (byte) c;
+		}
+		return b;
+	}
+
+	static int hexDigit(int c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+		if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+		if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		return -1;
+	}
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	// formatIpv4 is the inverse of parseIpv4.
+	static String formatIpv4(int addr) {
+		StringBuilder sb = new StringBuilder(15);
+		for (int shift = 24; shift >= 0; shift -= 8) {
+			sb.append((addr >>> shift) & 0xff);
+			if (shift > 0) {
+				sb.append('.');
+			}
+		}
+		return sb.toString();
+	}
+
+	// formatMac is the inverse of parseMac, using lowercase digits like the
+	// kernel does.
+	static String formatMac(long addr) {
+		char[] c = new char[17];
+		int pos = 0;
+		for (int shift = 40; shift >= 0; shift -= 8) {
+			int octet = (int) (addr >>> shift) & 0xff;
+			c[pos++] = HEX[octet >>> 4];
+			c[pos++] = HEX[octet & 0xf];
+			if (shift > 0) {
+				c[pos++] = ':';
+			}
+		}
+		return new String(c);
+	}
+}
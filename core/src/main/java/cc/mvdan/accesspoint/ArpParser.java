@@ -0,0 +1,228 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+// ArpParser reads the kernel ARP table into a reused buffer and decodes its
+// rows in place. The file is kept open and rewound on each parse, so a
+// parse that does not grow the buffer allocates nothing.
+//
+// The expected format of each row is, separated by any number of spaces:
+//
+//	IP address       HW type     Flags       HW address            Mask     Device
+//	192.168.43.12    0x1         0x2         aa:bb:cc:dd:ee:ff     *        wlan0
+final class ArpParser {
+
+	static final String ARP_PATH = "/proc/net/arp";
+
+	// Flags of an ARP entry, as in linux/if_arp.h.
+	static final int ATF_COM  = 0x02;
+	static final int ATF_PERM = 0x04;
+
+	// Visitor is called once for every well-formed row of the table that
+	// belongs to one of the devices the parser was created for.
+	interface Visitor {
+
+		// visit receives the index of the device of the row among
+		// those given to the parser, the IPv4 address packed
+		// big-endian in an int, the MAC packed big-endian in the lower
+		// 48 bits of a long, and the raw ARP flags.
+		void visit(int device, int ipAddr, long hwAddr, int flags);
+	}
+
+	private static final int COL_IP     = 0;
+	private static final int COL_FLAGS  = 2;
+	private static final int COL_HW     = 3;
+	private static final int COL_DEVICE = 5;
+	private static final int COLUMNS    = 6;
+
+	private final String path;
+	private final byte[][] devices;
+
+	private RandomAccessFile file;
+	private int lastRows;
+	private byte[] buf = new byte[4096];
+	private final int[] colStart = new int[COLUMNS];
+	private final int[] colEnd = new int[COLUMNS];
+
+	// ArpParser creates a parser for the rows of any of the given
+	// devices, so that a single read of the table can be split across
+	// several interfaces.
+	ArpParser(String path, String... devices) {
+		this.path = path;
+		this.devices = new byte[devices.length][];
+		for (int i = 0; i < devices.length; i++) {
+			this.devices[i] = asciiBytes(devices[i]);
+		}
+	}
+
+	private static byte[] asciiBytes(String s) {
+		byte[] b = new byte[s.length()];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte) s.charAt(i);
+		}
+		return b;
+	}
+
+	// parse reads the whole table and calls the visitor for each of the
+	// matching rows. It returns the number of rows visited.
+	synchronized int parse(Visitor visitor) throws IOException {
+		int len = read();
+		int visited = 0;
+		int rows = 0;
+		int pos = 0;
+		while (pos < len) {
+			int end = pos;
+			while (end < len && buf[end] != '\n') {
+				end++;
+			}
+			if (pos > 0 && end > pos) {
+				// not the header, nor an empty line
+				rows++;
+			}
+			if (parseRow(pos, end, visitor)) {
+				visited++;
+			}
+			pos = end + 1;
+		}
+		lastRows = rows;
+		return visited;
+	}
+
+	// lastRows returns how many rows the last parse scanned, whether they
+	// were visited or not. Hold the lock of the parser across both calls
+	// to get a consistent pair.
+	synchronized int lastRows() {
+		return lastRows;
+	}
+
+	// close releases the underlying file. A later parse will reopen it.
+	synchronized void close() {
+		if (file == null) {
+			return;
+		}
+		try {
+			file.close();
+		} catch (IOException e) {
+			// nothing useful to do
+		}
+		file = null;
+	}
+
+	private int read() throws IOException {
+		try {
+			if (file == null) {
+				file = new RandomAccessFile(path, "r");
+			}
+			file.seek(0);
+			int len = 0;
+			for (;;) {
+				if (len == buf.length) {
+					byte[] grown = new byte[buf.length * 2];
+					System.arraycopy(buf, 0, grown, 0, len);
+					buf = grown;
+				}
+				int n = file.read(buf, len, buf.length - len);
+				if (n < 0) {
+					return len;
+				}
+				len += n;
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	private boolean parseRow(int pos, int end, Visitor visitor) {
+		int cols = 0;
+		while (cols < COLUMNS) {
+			while (pos < end && buf[pos] == ' ') {
+				pos++;
+			}
+			if (pos == end) {
+				break;
+			}
+			colStart[cols] = pos;
+			while (pos < end && buf[pos] != ' ') {
+				pos++;
+			}
+			colEnd[cols] = pos;
+			cols++;
+		}
+		if (cols < COLUMNS) {
+			return false;
+		}
+		int device = -1;
+		for (int i = 0; i < devices.length; i++) {
+			if (columnEquals(COL_DEVICE, devices[i])) {
+				device = i;
+				break;
+			}
+		}
+		if (device < 0) {
+			return false;
+		}
+		long ipAddr = Addresses.parseIpv4(buf, colStart[COL_IP], colEnd[COL_IP]);
+		if (ipAddr < 0) {
+			return false;
+		}
+		long hwAddr = Addresses.parseMac(buf, colStart[COL_HW], colEnd[COL_HW]);
+		if (hwAddr < 0) {
+			return false;
+		}
+		long flags = parseHex(buf, colStart[COL_FLAGS], colEnd[COL_FLAGS]);
+		if (flags < 0) {
+			return false;
+		}
+		visitor.visit(device, (int) ipAddr, hwAddr, (int) flags);
+		return true;
+	}
+
+	private boolean columnEquals(int col, byte[] value) {
+		int start = colStart[col];
+		if (colEnd[col] - start != value.length) {
+			return false;
+		}
+		for (int i = 0; i < value.length; i++) {
+			if (buf[start + i] != value[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// parseHex decodes a 0x-prefixed hexadecimal number of up to eight
+	// digits, returning -1 if it is not valid.
+	static long parseHex(byte[] b, int pos, int end) {
+		if (end - pos < 3 || end - pos > 10 || b[pos] != '0'
+				|| (b[pos + 1] != 'x' && b[pos + 1] != 'X')) {
+			return -1;
+		}
+		long value = 0;
+		for (pos += 2; pos < end; pos++) {
+			int d = Addresses.hexDigit(b[pos]);
+			if (d < 0) {
+				return -1;
+			}
+			value = (value << 4) | d;
+		}
+		return value;
+	}
+}
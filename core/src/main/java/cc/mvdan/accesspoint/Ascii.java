@@ -0,0 +1,41 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+// Ascii decodes fields of the kernel's text tables in place, straight from
+// the bytes that were read, so that parsers don't need to build strings.
+final class Ascii {
+
+	private Ascii() {
+	}
+
+	// parseDecimal decodes an unsigned decimal number of up to 18 digits,
+	// returning -1 if it is not valid.
+	static long parseDecimal(byte[] b, int pos, int end) {
+		if (end == pos || end - pos > 18) {
+			return -1;
+		}
+		long value = 0;
+		for (; pos < end; pos++) {
+			if (b[pos] < '0' || b[pos] > '9') {
+				return -1;
+			}
+			value = value * 10 + (b[pos] - '0');
+		}
+		return value;
+	}
+}
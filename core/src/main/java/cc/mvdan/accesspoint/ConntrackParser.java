@@ -0,0 +1,227 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+// ConntrackParser streams the kernel connection tracking table through a
+// fixed-size buffer, so that tables with tens of thousands of flows are
+// processed in bounded memory. Fields are decoded in place; nothing is
+// split or allocated per line.
+//
+// Each line holds the protocol, followed by an original and a reply
+// direction, each with its own src=, dst=, port, packets= and bytes=
+// fields, the latter only if accounting is enabled in the kernel:
+//
+//	ipv4 2 tcp 6 431999 ESTABLISHED src=192.168.43.12 dst=1.2.3.4 sport=5000 dport=443 packets=10 bytes=1000 src=1.2.3.4 dst=192.168.43.12 sport=443 dport=5000 packets=8 bytes=900 [ASSURED] mark=0 use=2
+//
+// The older ip_conntrack format is the same without the first two
+// columns. ICMP flows have an id= field instead of ports. Only IPv4 flows
+// are visited.
+final class ConntrackParser {
+
+	static final String[] CONNTRACK_PATHS = {
+		"/proc/net/nf_conntrack",
+		"/proc/net/ip_conntrack",
+	};
+
+	// Visitor is called once per IPv4 flow.
+	interface Visitor {
+
+		// visit receives the protocol number and the tuple of the
+		// original direction, which together identify the flow, and
+		// the counters of each direction, which are 0 if accounting is
+		// disabled. The ports are 0 if the protocol has none; for
+		// ICMP, srcPort is the id.
+		void visit(int proto, int srcAddr, int dstAddr, int srcPort, int dstPort,
+				long origPackets, long origBytes, long replyPackets, long replyBytes);
+	}
+
+	static final int BUF_SIZE = 16 * 1024;
+
+	private static final byte[] SRC = { 's', 'r', 'c', '=' };
+	private static final byte[] DST = { 'd', 's', 't', '=' };
+	private static final byte[] SPORT = { 's', 'p', 'o', 'r', 't', '=' };
+	private static final byte[] DPORT = { 'd', 'p', 'o', 'r', 't', '=' };
+	private static final byte[] ID = { 'i', 'd', '=' };
+	private static final byte[] PACKETS = { 'p', 'a', 'c', 'k', 'e', 't', 's', '=' };
+	private static final byte[] BYTES = { 'b', 'y', 't', 'e', 's', '=' };
+	private static final byte[] IPV4 = { 'i', 'p', 'v', '4', ' ' };
+	private static final byte[] IPV6 = { 'i', 'p', 'v', '6', ' ' };
+
+	private final String path;
+	private final byte[] buf;
+	private RandomAccessFile file;
+
+	ConntrackParser(String path) {
+		this(path, BUF_SIZE);
+	}
+
+	ConntrackParser(String path, int bufSize) {
+		this.path = path;
+		this.buf = new byte[bufSize];
+	}
+
+	// parse streams the whole table, calling the visitor for every IPv4
+	// flow. Lines longer than the buffer are skipped. Returns the number
+	// of lines read.
+	synchronized int parse(Visitor visitor) throws IOException {
+		try {
+			if (file == null) {
+				file = new RandomAccessFile(path, "r");
+			}
+			file.seek(0);
+			int lines = 0;
+			int len = 0;
+			boolean skipping = false;
+			for (;;) {
+				int n = file.read(buf, len, buf.length - len);
+				if (n < 0) {
+					if (len > 0 && !skipping) {
+						parseLine(0, len, visitor);
+						lines++;
+					}
+					return lines;
+				}
+				len += n;
+				int pos = 0;
+				for (int i = 0; i < len; i++) {
+					if (buf[i] != '\n') {
+						continue;
+					}
+					if (!skipping) {
+						parseLine(pos, i, visitor);
+					}
+					skipping = false;
+					lines++;
+					pos = i + 1;
+				}
+				if (pos == 0 && len == buf.length) {
+					// a line that does not fit; drop it
+					// up to its end
+					skipping = true;
+					len = 0;
+					continue;
+				}
+				// keep the partial line for the next read
+				System.arraycopy(buf, pos, buf, 0, len - pos);
+				len -= pos;
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	// close releases the underlying file. A later parse will reopen it.
+	synchronized void close() {
+		if (file == null) {
+			return;
+		}
+		try {
+			file.close();
+		} catch (IOException e) {
+			// nothing useful to do
+		}
+		file = null;
+	}
+
+	private void parseLine(int pos, int end, Visitor visitor) {
+		if (startsWith(pos, end, IPV6)) {
+			return;
+		}
+		// the protocol number follows its name, after the network
+		// protocol name and number in nf_conntrack
+		int protoToken = startsWith(pos, end, IPV4) ? 3 : 1;
+		int tokens = 0;
+		long proto = -1;
+		long src = -1;
+		long dst = -1;
+		long srcPort = 0;
+		long dstPort = 0;
+		long origPackets = 0;
+		long origBytes = 0;
+		long replyPackets = 0;
+		long replyBytes = 0;
+		int srcSeen = 0;
+		while (pos < end) {
+			while (pos < end && buf[pos] == ' ') {
+				pos++;
+			}
+			int start = pos;
+			while (pos < end && buf[pos] != ' ') {
+				pos++;
+			}
+			if (tokens++ == protoToken) {
+				proto = Ascii.parseDecimal(buf, start, pos);
+			} else if (startsWith(start, pos, SRC)) {
+				if (srcSeen++ == 0) {
+					src = Addresses.parseIpv4(buf, start + SRC.length, pos);
+					if (src < 0) {
+						// not an IPv4 flow
+						return;
+					}
+				}
+			} else if (startsWith(start, pos, PACKETS)) {
+				long v = Ascii.parseDecimal(buf, start + PACKETS.length, pos);
+				if (srcSeen == 1) {
+					origPackets = v;
+				} else {
+					replyPackets = v;
+				}
+			} else if (startsWith(start, pos, BYTES)) {
+				long v = Ascii.parseDecimal(buf, start + BYTES.length, pos);
+				if (srcSeen == 1) {
+					origBytes = v;
+				} else {
+					replyBytes = v;
+				}
+			} else if (srcSeen != 1) {
+				// the tuple of the reply direction mirrors
+				// the original one
+			} else if (startsWith(start, pos, DST)) {
+				dst = Addresses.parseIpv4(buf, start + DST.length, pos);
+			} else if (startsWith(start, pos, SPORT)) {
+				srcPort = Ascii.parseDecimal(buf, start + SPORT.length, pos);
+			} else if (startsWith(start, pos, DPORT)) {
+				dstPort = Ascii.parseDecimal(buf, start + DPORT.length, pos);
+			} else if (startsWith(start, pos, ID)) {
+				srcPort = Ascii.parseDecimal(buf, start + ID.length, pos);
+			}
+		}
+		if (src < 0 || dst < 0 || proto < 0) {
+			return;
+		}
+		visitor.visit((int) proto, (int) src, (int) dst,
+				(int) Math.max(0, srcPort), (int) Math.max(0, dstPort),
+				Math.max(0, origPackets), Math.max(0, origBytes),
+				Math.max(0, replyPackets), Math.max(0, replyBytes));
+	}
+
+	private boolean startsWith(int pos, int end, byte[] prefix) {
+		if (end - pos < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (buf[pos + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
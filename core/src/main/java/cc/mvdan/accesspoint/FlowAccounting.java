@@ -0,0 +1,246 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// FlowAccounting adds up the traffic of each client over passes through the
+// connection tracking table. The counters of a flow only grow for as long as
+// it is tracked, so what a client sent and received between two passes is
+// the growth of each of its flows, added up. Comparing per-client totals
+// instead would go wrong whenever a flow expires, as its whole count would
+// drop out of the total and hide the traffic of the other flows.
+//
+// A flow seen for the first time counts in full, as it started after the
+// previous pass, unless its client is new too. Flows that start and expire
+// between two passes are never seen, so their traffic is missed.
+//
+// Flows are keyed by their protocol and original tuple, and are only kept
+// for the clients being accounted for. Once the flows are stable, passes
+// do not allocate. It is not safe for concurrent use.
+final class FlowAccounting {
+
+	// Counters is the traffic of one client. The totals are over the
+	// flows tracked at the last pass, and the deltas are what was added
+	// since the pass before it.
+	static final class Counters {
+
+		// known is whether the client was accounted for in the
+		// previous pass too. If not, the deltas are all 0.
+		boolean known;
+
+		long flows;
+		long txPackets;
+		long txBytes;
+		long rxPackets;
+		long rxBytes;
+		long txPacketsDelta;
+		long txBytesDelta;
+		long rxPacketsDelta;
+		long rxBytesDelta;
+
+		void reset() {
+			flows = 0;
+			txPackets = 0;
+			txBytes = 0;
+			rxPackets = 0;
+			rxBytes = 0;
+			txPacketsDelta = 0;
+			txBytesDelta = 0;
+			rxPacketsDelta = 0;
+			rxBytesDelta = 0;
+		}
+	}
+
+	private static final class Flow {
+
+		int proto;
+		int srcAddr;
+		int dstAddr;
+		int srcPort;
+		int dstPort;
+		long txPackets;
+		long txBytes;
+		long rxPackets;
+		long rxBytes;
+
+		// pass is the last pass that saw the flow.
+		int pass;
+
+		boolean is(int proto, int srcAddr, int dstAddr, int srcPort, int dstPort) {
+			return this.proto == proto && this.srcAddr == srcAddr && this.dstAddr == dstAddr
+					&& this.srcPort == srcPort && this.dstPort == dstPort;
+		}
+	}
+
+	// Keyed by packed IPv4 address.
+	private LongTable<Counters> clients = new LongTable<>();
+	private LongTable<Counters> spareClients = new LongTable<>();
+
+	// Keyed by flowKey. Tuples with the same key take the following free
+	// keys, which works since flows are never removed from a table, only
+	// cleared all at once.
+	private LongTable<Flow> flows = new LongTable<>();
+	private LongTable<Flow> prevFlows = new LongTable<>();
+	private final List<Flow> free = new ArrayList<>();
+	private int pass;
+
+	private final ConntrackParser.Visitor visitor = new ConntrackParser.Visitor() {
+		public void visit(int proto, int srcAddr, int dstAddr, int srcPort, int dstPort,
+				long origPackets, long origBytes, long replyPackets, long replyBytes) {
+			Counters c = clients.get(srcAddr & 0xffffffffL);
+			if (c == null) {
+				return;
+			}
+			c.flows++;
+			c.txPackets += origPackets;
+			c.txBytes += origBytes;
+			c.rxPackets += replyPackets;
+			c.rxBytes += replyBytes;
+
+			long key = flowKey(proto, srcAddr, dstAddr, srcPort, dstPort);
+			Flow f = find(key, proto, srcAddr, dstAddr, srcPort, dstPort);
+			if (f != null) {
+				c.txPacketsDelta += growth(origPackets, f.txPackets);
+				c.txBytesDelta += growth(origBytes, f.txBytes);
+				c.rxPacketsDelta += growth(replyPackets, f.rxPackets);
+				c.rxBytesDelta += growth(replyBytes, f.rxBytes);
+			} else {
+				if (c.known) {
+					c.txPacketsDelta += origPackets;
+					c.txBytesDelta += origBytes;
+					c.rxPacketsDelta += replyPackets;
+					c.rxBytesDelta += replyBytes;
+				}
+				f = newFlow();
+				f.proto = proto;
+				f.srcAddr = srcAddr;
+				f.dstAddr = dstAddr;
+				f.srcPort = srcPort;
+				f.dstPort = dstPort;
+			}
+			f.txPackets = origPackets;
+			f.txBytes = origBytes;
+			f.rxPackets = replyPackets;
+			f.rxBytes = replyBytes;
+			f.pass = pass;
+			while (flows.containsKey(key)) {
+				key++;
+			}
+			flows.put(key, f);
+		}
+	};
+
+	// update makes a pass through the table for the clients with the
+	// first n packed IPv4 addresses in addrs, and forgets about any other
+	// clients. If the table cannot be read, the next pass starts over as
+	// if all the clients were new.
+	void update(ConntrackParser parser, int[] addrs, int n) throws IOException {
+		pass++;
+		LongTable<Counters> next = spareClients;
+		next.clear();
+		for (int i = 0; i < n; i++) {
+			long key = addrs[i] & 0xffffffffL;
+			if (next.containsKey(key)) {
+				continue;
+			}
+			Counters c = clients.get(key);
+			if (c == null) {
+				c = new Counters();
+			} else {
+				c.known = true;
+			}
+			c.reset();
+			next.put(key, c);
+		}
+		spareClients = clients;
+		clients = next;
+
+		LongTable<Flow> swap = prevFlows;
+		prevFlows = flows;
+		flows = swap;
+		boolean ok = false;
+		try {
+			parser.parse(visitor);
+			ok = true;
+		} finally {
+			recycle(prevFlows);
+			if (!ok) {
+				flows.clear();
+				clients.clear();
+			}
+		}
+	}
+
+	// get returns the counters of the client with the packed IPv4
+	// address, or null if it was not part of the last pass.
+	Counters get(int addr) {
+		return clients.get(addr & 0xffffffffL);
+	}
+
+	// flowCount returns the number of flows of the clients seen in the
+	// last pass.
+	int flowCount() {
+		return flows.size();
+	}
+
+	private Flow find(long key, int proto, int srcAddr, int dstAddr, int srcPort, int dstPort) {
+		for (;; key++) {
+			Flow f = prevFlows.get(key);
+			if (f == null) {
+				return null;
+			}
+			if (f.is(proto, srcAddr, dstAddr, srcPort, dstPort)) {
+				return f;
+			}
+		}
+	}
+
+	private Flow newFlow() {
+		int n = free.size();
+		if (n == 0) {
+			return new Flow();
+		}
+		return free.remove(n - 1);
+	}
+
+	// recycle clears the table, keeping the flows that the current pass
+	// has not seen for reuse.
+	private void recycle(LongTable<Flow> table) {
+		for (int i = 0; i < table.capacity(); i++) {
+			Flow f = table.valueAt(i);
+			if (f != null && f.pass != pass) {
+				free.add(f);
+			}
+		}
+		table.clear();
+	}
+
+	// growth returns how much a counter grew. If it went down, the tuple
+	// was reused by a new flow, which counts in full.
+	private static long growth(long cur, long prev) {
+		return cur >= prev ? cur - prev : cur;
+	}
+
+	private static long flowKey(int proto, int srcAddr, int dstAddr, int srcPort, int dstPort) {
+		long addrs = ((long) srcAddr << 32) | (dstAddr & 0xffffffffL);
+		long rest = ((long) proto << 32) | ((srcPort & 0xffffL) << 16) | (dstPort & 0xffffL);
+		return addrs * 0x9e3779b97f4a7c15L + rest;
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+// HostapdParser decodes the replies and events of the hostapd control
+// interface. Events look like "<3>AP-STA-CONNECTED 02:00:00:00:00:01",
+// where the number is the priority of the message, and the reply to
+// STA-FIRST and STA-NEXT is the MAC of a station followed by one line per
+// attribute, or an empty string or "FAIL" once there are no more.
+final class HostapdParser {
+
+	static final int EVENT_OTHER = 0;
+	static final int EVENT_CONNECTED = 1;
+	static final int EVENT_DISCONNECTED = 2;
+
+	private static final String CONNECTED = "AP-STA-CONNECTED ";
+	private static final String DISCONNECTED = "AP-STA-DISCONNECTED ";
+
+	private static final int MAC_LEN = 17;
+
+	private HostapdParser() {
+	}
+
+	// isEvent reports whether msg is an unsolicited event rather than the
+	// reply to a command.
+	static boolean isEvent(String msg) {
+		return msg.length() > 0 && msg.charAt(0) == '<';
+	}
+
+	// eventType returns one of the EVENT_ constants.
+	static int eventType(String msg) {
+		int start = bodyStart(msg);
+		if (msg.startsWith(CONNECTED, start)) {
+			return EVENT_CONNECTED;
+		}
+		if (msg.startsWith(DISCONNECTED, start)) {
+			return EVENT_DISCONNECTED;
+		}
+		return EVENT_OTHER;
+	}
+
+	// eventStation returns the packed MAC of the station that a
+	// connection event is about, or -1 if there is none.
+	static long eventStation(String msg) {
+		int start = bodyStart(msg);
+		if (msg.startsWith(CONNECTED, start)) {
+			start += CONNECTED.length();
+		} else if (msg.startsWith(DISCONNECTED, start)) {
+			start += DISCONNECTED.length();
+		} else {
+			return -1;
+		}
+		return parseMac(msg, start);
+	}
+
+	// staReply returns the packed MAC of the station in the reply to
+	// STA-FIRST or STA-NEXT, or -1 if the list has ended.
+	static long staReply(String reply) {
+		return parseMac(reply, 0);
+	}
+
+	// bodyStart skips the priority prefix of an event, if any.
+	private static int bodyStart(String msg) {
+		if (!isEvent(msg)) {
+			return 0;
+		}
+		int end = msg.indexOf('>');
+		return end < 0 ? 0 : end + 1;
+	}
+
+	// parseMac decodes the MAC at start, which must be followed by the end
+	// of the string, a space or a newline.
+	private static long parseMac(String s, int start) {
+		int end = start + MAC_LEN;
+		if (end > s.length()) {
+			return -1;
+		}
+		if (end < s.length()) {
+			char c = s.charAt(end);
+			if (c != ' ' && c != '\n') {
+				return -1;
+			}
+		}
+		return Addresses.parseMac(s.substring(start, end));
+	}
+}
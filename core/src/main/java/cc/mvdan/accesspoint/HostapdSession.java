@@ -0,0 +1,240 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// HostapdSession speaks the control protocol of hostapd over two transports:
+// one for commands, and one attached to receive events. It keeps the set of
+// associated stations up to date. The transports are abstracted so that
+// the protocol does not depend on Android local sockets.
+final class HostapdSession {
+
+	// Transport is one connection to the control interface. Every message
+	// sent or received is a single datagram.
+	interface Transport {
+
+		void send(String msg) throws IOException;
+
+		// receive waits for the next message for up to timeout
+		// milliseconds, or forever if timeout is zero.
+		String receive(int timeout) throws IOException;
+
+		void close();
+	}
+
+	// Opener connects a new transport to the control socket at path.
+	interface Opener {
+		Transport open(String path) throws IOException;
+	}
+
+	// Listener is told about the stations that come and go.
+	interface Listener {
+		void onStation(String hwAddr, boolean connected);
+	}
+
+	static final int REQUEST_TIMEOUT = 1000;
+
+	// hostapd cannot associate more stations than this, so it bounds the
+	// STA-NEXT walk should a reply ever repeat.
+	private static final int MAX_STATIONS = 2007;
+
+	private final Transport commands;
+	private final Transport events;
+
+	// Guarded by this.
+	private final LongTable<String> stations = new LongTable<>();
+
+	private HostapdSession(Transport commands, Transport events) {
+		this.commands = commands;
+		this.events = events;
+	}
+
+	// open connects to the control socket at path, attaches to its events
+	// and lists the stations that are already associated.
+	static HostapdSession open(Opener opener, String path) throws IOException {
+		Transport commands = opener.open(path);
+		Transport events = null;
+		try {
+			events = opener.open(path);
+			HostapdSession s = new HostapdSession(commands, events);
+			s.attach();
+			return s;
+		} catch (IOException | RuntimeException e) {
+			commands.close();
+			if (events != null) {
+				events.close();
+			}
+			throw e;
+		}
+	}
+
+	// attach subscribes to events before listing the stations, so that no
+	// event falls in between. Those queued meanwhile are applied on top of
+	// the list by next.
+	private void attach() throws IOException {
+		String reply = request(events, "ATTACH", REQUEST_TIMEOUT);
+		if (!reply.startsWith("OK")) {
+			throw new IOException("ATTACH failed: " + reply);
+		}
+		reply = request(commands, "STA-FIRST", REQUEST_TIMEOUT);
+		for (int i = 0; i < MAX_STATIONS; i++) {
+			long hwAddr = HostapdParser.staReply(reply);
+			if (hwAddr < 0) {
+				break;
+			}
+			String mac = Addresses.formatMac(hwAddr);
+			synchronized (this) {
+				stations.put(hwAddr, mac);
+			}
+			reply = request(commands, "STA-NEXT " + mac, REQUEST_TIMEOUT);
+		}
+	}
+
+	// request sends cmd and returns its reply, skipping any events that
+	// arrive in between.
+	static String request(Transport t, String cmd, int timeout) throws IOException {
+		t.send(cmd);
+		for (;;) {
+			String reply = t.receive(timeout);
+			if (!HostapdParser.isEvent(reply)) {
+				return reply;
+			}
+		}
+	}
+
+	// ping reports whether hostapd answers on the control socket at path.
+	static boolean ping(Opener opener, String path) {
+		Transport t;
+		try {
+			t = opener.open(path);
+		} catch (IOException | RuntimeException e) {
+			return false;
+		}
+		try {
+			return request(t, "PING", REQUEST_TIMEOUT).startsWith("PONG");
+		} catch (IOException e) {
+			return false;
+		} finally {
+			t.close();
+		}
+	}
+
+	// findSocket returns the path of the control socket of the hostapd
+	// serving deviceName, or null if none answers. The socket named after
+	// the device is preferred. hostapd may run on a separate AP interface,
+	// so any other socket in the same directories is taken too, as long
+	// as it answers PING. P2P interfaces are skipped, as they belong to
+	// wpa_supplicant.
+	static String findSocket(String[] dirs, String deviceName, Opener opener) {
+		for (String dir : dirs) {
+			File f = new File(dir, deviceName);
+			if (f.exists() && ping(opener, f.getPath())) {
+				return f.getPath();
+			}
+		}
+		for (String dir : dirs) {
+			String[] names = new File(dir).list();
+			if (names == null) {
+				continue;
+			}
+			Arrays.sort(names);
+			for (String name : names) {
+				if (name.equals(deviceName) || name.startsWith("p2p")) {
+					continue;
+				}
+				String path = new File(dir, name).getPath();
+				if (ping(opener, path)) {
+					return path;
+				}
+			}
+		}
+		return null;
+	}
+
+	// next waits for the next event and applies it, telling listener about
+	// any change. It throws IOException once the events cannot be read
+	// anymore, such as when hostapd exits.
+	void next(Listener listener) throws IOException {
+		handle(events.receive(0), listener);
+	}
+
+	private void handle(String msg, Listener listener) {
+		int type = HostapdParser.eventType(msg);
+		if (type == HostapdParser.EVENT_OTHER) {
+			return;
+		}
+		long hwAddr = HostapdParser.eventStation(msg);
+		if (hwAddr < 0) {
+			return;
+		}
+		String mac;
+		synchronized (this) {
+			if (type == HostapdParser.EVENT_CONNECTED) {
+				mac = Addresses.formatMac(hwAddr);
+				if (stations.put(hwAddr, mac) != null) {
+					// already known, such as from the initial list
+					return;
+				}
+			} else {
+				mac = stations.remove(hwAddr);
+				if (mac == null) {
+					return;
+				}
+			}
+		}
+		listener.onStation(mac, type == HostapdParser.EVENT_CONNECTED);
+	}
+
+	// isConnected reports whether the station with the packed MAC is
+	// associated.
+	synchronized boolean isConnected(long hwAddr) {
+		return stations.containsKey(hwAddr);
+	}
+
+	// getStations returns the MACs of the associated stations.
+	synchronized List<String> getStations() {
+		List<String> result = new ArrayList<>(stations.size());
+		for (int i = 0; i < stations.capacity(); i++) {
+			String mac = stations.valueAt(i);
+			if (mac != null) {
+				result.add(mac);
+			}
+		}
+		return result;
+	}
+
+	// detach stops the session. The reply to DETACH wakes up the thread
+	// blocked in next, which should then call close.
+	void detach() {
+		commands.close();
+		try {
+			events.send("DETACH");
+		} catch (IOException e) {
+			events.close();
+		}
+	}
+
+	void close() {
+		commands.close();
+		events.close();
+	}
+}
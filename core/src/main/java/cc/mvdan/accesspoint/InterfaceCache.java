@@ -0,0 +1,141 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+// InterfaceCache resolves the addresses of a single network interface by
+// name and keeps them for up to maxAge milliseconds or until invalidated,
+// unless there were none. If the interface shows up in /sys/class/net when
+// resolved, the cache is also dropped as soon as it disappears from there.
+//
+// IPv6 addresses usually show up a while after the IPv4 ones, once duplicate
+// address detection is done. So if an address family that the interface had
+// before is missing, the result is only kept for PARTIAL_MAX_AGE.
+final class InterfaceCache {
+
+	static final long DEFAULT_MAX_AGE = 30 * 1000;
+	static final long PARTIAL_MAX_AGE = 1000;
+
+	private static final InetAddress[] NONE = new InetAddress[0];
+
+	private final String deviceName;
+	private final File sysDir;
+	private final long maxAge;
+
+	private InetAddress[] addrs;
+	private long expiry;
+	private boolean checkSys;
+	private boolean hadIpv4;
+	private boolean hadIpv6;
+
+	InterfaceCache(String deviceName) {
+		this(deviceName, DEFAULT_MAX_AGE);
+	}
+
+	InterfaceCache(String deviceName, long maxAge) {
+		this.deviceName = deviceName;
+		this.sysDir = new File("/sys/class/net", deviceName);
+		this.maxAge = maxAge;
+	}
+
+	// invalidate makes the next call to get resolve the interface again.
+	synchronized void invalidate() {
+		addrs = null;
+	}
+
+	// get returns all the addresses of the interface, which are none if it
+	// does not exist. The returned array must not be modified.
+	synchronized InetAddress[] get() throws IOException {
+		long now = System.nanoTime() / 1000000;
+		if (addrs != null && (now - expiry >= 0 || (checkSys && !sysDir.exists()))) {
+			addrs = null;
+		}
+		if (addrs != null) {
+			return addrs;
+		}
+		InetAddress[] resolved = resolve();
+		// An interface that is still coming up may not have any
+		// addresses yet, so don't hold on to that.
+		if (resolved.length > 0) {
+			boolean ipv4 = false;
+			boolean ipv6 = false;
+			for (InetAddress addr : resolved) {
+				if (addr instanceof Inet4Address) {
+					ipv4 = true;
+				} else if (addr instanceof Inet6Address) {
+					ipv6 = true;
+				}
+			}
+			boolean partial = (hadIpv4 && !ipv4) || (hadIpv6 && !ipv6);
+			hadIpv4 |= ipv4;
+			hadIpv6 |= ipv6;
+			addrs = resolved;
+			expiry = now + (partial ? Math.min(maxAge, PARTIAL_MAX_AGE) : maxAge);
+			checkSys = sysDir.exists();
+		}
+		return resolved;
+	}
+
+	private InetAddress[] resolve() throws IOException {
+		NetworkInterface iface = NetworkInterface.getByName(deviceName);
+		if (iface == null) {
+			return NONE;
+		}
+		List<InetAddress> list = new ArrayList<>();
+		Enumeration<InetAddress> e = iface.getInetAddresses();
+		while (e.hasMoreElements()) {
+			list.add(e.nextElement());
+		}
+		return list.toArray(new InetAddress[list.size()]);
+	}
+
+	// prefixLength returns the network prefix length of addr on the
+	// interface, or -1 if it is not known. It always looks the interface
+	// up again, and needs 2.3 or later.
+	int prefixLength(InetAddress addr) throws IOException {
+		NetworkInterface iface = NetworkInterface.getByName(deviceName);
+		if (iface == null) {
+			return -1;
+		}
+		for (InterfaceAddress ia : iface.getInterfaceAddresses()) {
+			if (addr.equals(ia.getAddress())) {
+				return ia.getNetworkPrefixLength();
+			}
+		}
+		return -1;
+	}
+
+	// first returns the first address of the given type, or null.
+	<T extends InetAddress> T first(Class<T> addressType) throws IOException {
+		for (InetAddress addr : get()) {
+			if (addressType.isInstance(addr)) {
+				return addressType.cast(addr);
+			}
+		}
+		return null;
+	}
+}
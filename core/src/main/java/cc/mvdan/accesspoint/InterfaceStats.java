@@ -0,0 +1,96 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+// InterfaceStats reads the traffic counters of a network interface from
+// /sys/class/net/<dev>/statistics. The files are kept open and rewound on
+// each read, which makes sysfs generate their contents again, and they are
+// decoded from a reused buffer, so a read allocates nothing.
+final class InterfaceStats {
+
+	static final int RX_BYTES   = 0;
+	static final int TX_BYTES   = 1;
+	static final int RX_PACKETS = 2;
+	static final int TX_DROPPED = 3;
+	static final int COUNTERS   = 4;
+
+	private static final String[] NAMES = { "rx_bytes", "tx_bytes", "rx_packets", "tx_dropped" };
+
+	private final File dir;
+	private final RandomAccessFile[] files = new RandomAccessFile[COUNTERS];
+	private final byte[] buf = new byte[24];
+
+	InterfaceStats(String sysNet, String device) {
+		this.dir = new File(new File(sysNet, device), "statistics");
+	}
+
+	// read stores the current value of every counter into values, indexed
+	// by the constants above. It fails if the interface does not exist.
+	synchronized void read(long[] values) throws IOException {
+		try {
+			for (int i = 0; i < COUNTERS; i++) {
+				if (files[i] == null) {
+					files[i] = new RandomAccessFile(new File(dir, NAMES[i]), "r");
+				}
+				RandomAccessFile f = files[i];
+				f.seek(0);
+				int len = 0;
+				int n;
+				while (len < buf.length && (n = f.read(buf, len, buf.length - len)) > 0) {
+					len += n;
+				}
+				values[i] = parseCounter(buf, len);
+			}
+		} catch (IOException e) {
+			// The interface may have gone away; start afresh.
+			close();
+			throw e;
+		}
+	}
+
+	// close releases the files. A later read will reopen them.
+	synchronized void close() {
+		for (int i = 0; i < COUNTERS; i++) {
+			if (files[i] == null) {
+				continue;
+			}
+			try {
+				files[i].close();
+			} catch (IOException e) {
+				// nothing useful to do
+			}
+			files[i] = null;
+		}
+	}
+
+	// parseCounter decodes a decimal counter followed by a newline.
+	static long parseCounter(byte[] b, int len) throws IOException {
+		long value = 0;
+		int i = 0;
+		for (; i < len && b[i] >= '0' && b[i] <= '9'; i++) {
+			value = value * 10 + (b[i] - '0');
+		}
+		if (i == 0) {
+			throw new IOException("malformed interface counter");
+		}
+		return value;
+	}
+}
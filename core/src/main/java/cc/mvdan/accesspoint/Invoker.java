@@ -0,0 +1,90 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+// Invoker calls a single method via reflection. The method is looked up by
+// its exact signature the first time it is needed, and made accessible once,
+// so that later calls only pay for Method.invoke itself. Calls without
+// arguments share one empty array instead of allocating a new one.
+final class Invoker {
+
+	static final Object[] NO_ARGS = new Object[0];
+
+	private final Class<?> cls;
+	private final String name;
+	private final Class<?>[] paramTypes;
+
+	private volatile boolean resolved;
+	private volatile Method method;
+
+	Invoker(Class<?> cls, String name, Class<?>... paramTypes) {
+		this.cls = cls;
+		this.name = name;
+		this.paramTypes = paramTypes;
+	}
+
+	// get returns the method, or null if it does not exist.
+	Method get() {
+		if (!resolved) {
+			synchronized (this) {
+				if (!resolved) {
+					method = lookup();
+					resolved = true;
+				}
+			}
+		}
+		return method;
+	}
+
+	private Method lookup() {
+		try {
+			Method m = cls.getDeclaredMethod(name, paramTypes);
+			try {
+				m.setAccessible(true);
+			} catch (SecurityException e) {
+				// still usable if it is public
+			}
+			return m;
+		} catch (NoSuchMethodException | SecurityException e) {
+			return null;
+		}
+	}
+
+	// isAvailable reports whether the method exists.
+	boolean isAvailable() {
+		return get() != null;
+	}
+
+	// invoke calls the method without arguments.
+	Object invoke(Object receiver)
+			throws IllegalAccessException, InvocationTargetException {
+		return invoke(receiver, NO_ARGS);
+	}
+
+	// invoke calls the method with the given arguments.
+	Object invoke(Object receiver, Object... args)
+			throws IllegalAccessException, InvocationTargetException {
+		Method m = get();
+		if (m == null) {
+			throw new IllegalAccessException(cls.getName() + "." + name + " is not available");
+		}
+		return m.invoke(receiver, args);
+	}
+}
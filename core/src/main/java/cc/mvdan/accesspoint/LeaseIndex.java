@@ -0,0 +1,236 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+// LeaseIndex keeps the DHCP leases handed out by dnsmasq, indexed by MAC.
+// The lease file is only read again when its size or modification time
+// change, so looking up the leases of clients is usually cheap.
+//
+// Modification times may only have a resolution of a second or two, so a
+// file rewritten with the same size right after it was read would look
+// unchanged. Until a read happens at least MTIME_GRANULARITY after the
+// modification time, the file is read again every time.
+//
+// The expected format of each IPv4 lease is, separated by spaces:
+//
+//	expiry      MAC                IP             hostname  client-id
+//	1445523331  aa:bb:cc:dd:ee:ff  192.168.43.12  android-1 01:aa:bb:cc:dd:ee:ff
+//
+// where the expiry is in seconds since the epoch, or 0 for a lease that
+// never expires, and unknown values are "*". DHCPv6 leases, which carry
+// an IAID instead of a MAC, are skipped.
+final class LeaseIndex {
+
+	// The lease file of the tethering dnsmasq on Android, and the usual
+	// one on desktop Linux.
+	static final String[] LEASE_PATHS = {
+		"/data/misc/dhcp/dnsmasq.leases",
+		"/var/lib/misc/dnsmasq.leases",
+	};
+
+	static final class Lease {
+
+		final int ipAddr;
+		final String hostname;
+		final String clientId;
+
+		// expiry is in System.currentTimeMillis time, or Long.MAX_VALUE
+		// if the lease never expires.
+		final long expiry;
+
+		Lease(int ipAddr, String hostname, String clientId, long expiry) {
+			this.ipAddr = ipAddr;
+			this.hostname = hostname;
+			this.clientId = clientId;
+			this.expiry = expiry;
+		}
+	}
+
+	private static final int COL_EXPIRY   = 0;
+	private static final int COL_HW       = 1;
+	private static final int COL_IP       = 2;
+	private static final int COL_HOSTNAME = 3;
+	private static final int COL_CLIENTID = 4;
+	private static final int COLUMNS      = 5;
+
+	static final long MTIME_GRANULARITY = 2000;
+
+	private final String[] paths;
+
+	private String path;
+	private long size = -1;
+	private long mtime;
+	private boolean racy;
+	private LongTable<Lease> leases = new LongTable<>();
+	private byte[] buf = new byte[4096];
+	private final int[] colStart = new int[COLUMNS];
+	private final int[] colEnd = new int[COLUMNS];
+
+	// The first of the paths that exists is used, looking again each time
+	// in case dnsmasq is only started later.
+	LeaseIndex(String... paths) {
+		this.paths = paths;
+	}
+
+	// reload reads the lease file again if it changed since the last time.
+	// Returns whether it did.
+	synchronized boolean reload() throws IOException {
+		File f = null;
+		long m = 0;
+		for (String p : paths) {
+			f = new File(p);
+			m = f.lastModified();
+			if (m != 0) {
+				break;
+			}
+		}
+		if (m == 0) {
+			// no lease file at all
+			boolean had = size >= 0;
+			path = null;
+			size = -1;
+			leases.clear();
+			return had;
+		}
+		long s = f.length();
+		if (f.getPath().equals(path) && s == size && m == mtime && !racy) {
+			return false;
+		}
+		// Taken before reading, so that a change made while reading
+		// is never missed.
+		long readAt = System.currentTimeMillis();
+		int len;
+		try {
+			len = read(f);
+		} catch (FileNotFoundException e) {
+			// removed in between, or not readable
+			path = null;
+			size = -1;
+			leases.clear();
+			return true;
+		}
+		LongTable<Lease> next = new LongTable<>(leases.size());
+		int pos = 0;
+		while (pos < len) {
+			int end = pos;
+			while (end < len && buf[end] != '\n') {
+				end++;
+			}
+			parseRow(pos, end, next);
+			pos = end + 1;
+		}
+		leases = next;
+		path = f.getPath();
+		size = s;
+		mtime = m;
+		racy = readAt - m < MTIME_GRANULARITY;
+		return true;
+	}
+
+	synchronized int size() {
+		return leases.size();
+	}
+
+	synchronized Lease get(long hwAddr) {
+		return leases.get(hwAddr);
+	}
+
+	private int read(File f) throws IOException {
+		FileInputStream in = new FileInputStream(f);
+		try {
+			int len = 0;
+			for (;;) {
+				if (len == buf.length) {
+					byte[] grown = new byte[buf.length * 2];
+					System.arraycopy(buf, 0, grown, 0, len);
+					buf = grown;
+				}
+				int n = in.read(buf, len, buf.length - len);
+				if (n < 0) {
+					return len;
+				}
+				len += n;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private void parseRow(int pos, int end, LongTable<Lease> into) {
+		int cols = 0;
+		while (cols < COLUMNS) {
+			while (pos < end && buf[pos] == ' ') {
+				pos++;
+			}
+			if (pos == end) {
+				break;
+			}
+			colStart[cols] = pos;
+			while (pos < end && buf[pos] != ' ') {
+				pos++;
+			}
+			colEnd[cols] = pos;
+			cols++;
+		}
+		if (cols < COL_IP + 1) {
+			return;
+		}
+		long hwAddr = Addresses.parseMac(buf, colStart[COL_HW], colEnd[COL_HW]);
+		if (hwAddr < 0) {
+			return;
+		}
+		long ipAddr = Addresses.parseIpv4(buf, colStart[COL_IP], colEnd[COL_IP]);
+		if (ipAddr < 0) {
+			return;
+		}
+		long secs = Ascii.parseDecimal(buf, colStart[COL_EXPIRY], colEnd[COL_EXPIRY]);
+		if (secs < 0) {
+			return;
+		}
+		long expiry = secs == 0 ? Long.MAX_VALUE : secs * 1000;
+		Lease prev = into.get(hwAddr);
+		if (prev != null && prev.expiry >= expiry) {
+			// keep the lease that lasts the longest
+			return;
+		}
+		into.put(hwAddr, new Lease((int) ipAddr, column(COL_HOSTNAME, cols),
+				column(COL_CLIENTID, cols), expiry));
+	}
+
+	// column returns the text of a column, or null if it is missing or
+	// unknown.
+	private String column(int col, int cols) {
+		if (col >= cols) {
+			return null;
+		}
+		int start = colStart[col];
+		int len = colEnd[col] - start;
+		if (len == 1 && buf[start] == '*') {
+			return null;
+		}
+		char[] c = new char[len];
+		for (int i = 0; i < len; i++) {
+			c[i] = (char) (buf[start + i] & 0xff);
+		}
+		return new String(c);
+	}
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+// LongTable is a hash table from primitive long keys, such as packed MACs,
+// to non-null values. It uses open addressing with linear probing, so
+// lookups and updates do not allocate, and removals shift the following
+// entries back instead of leaving tombstones.
+//
+// To iterate, walk the slots from 0 to capacity() and skip those for which
+// valueAt returns null. The table must not be modified while doing so.
+// It is not safe for concurrent use.
+final class LongTable<V> {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+
+	LongTable() {
+		this(MIN_CAPACITY);
+	}
+
+	LongTable(int expected) {
+		int cap = MIN_CAPACITY;
+		// keep the load factor at or below one half
+		while (cap < expected * 2) {
+			cap <<= 1;
+		}
+		keys = new long[cap];
+		values = new Object[cap];
+		mask = cap - 1;
+	}
+
+	// The finalizer of MurmurHash3, which spreads the bits of MACs that
+	// share a vendor prefix.
+	static int slot(long key, int mask) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key & mask;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int capacity() {
+		return keys.length;
+	}
+
+	long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	@SuppressWarnings("unchecked")
+	V valueAt(int slot) {
+		return (V) values[slot];
+	}
+
+	@SuppressWarnings("unchecked")
+	V get(long key) {
+		for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return (V) values[i];
+			}
+		}
+		return null;
+	}
+
+	boolean containsKey(long key) {
+		return get(key) != null;
+	}
+
+	// put maps key to value, returning the previous value or null.
+	@SuppressWarnings("unchecked")
+	V put(long key, V value) {
+		if (value == null) {
+			throw new NullPointerException("null values are not supported");
+		}
+		int i = slot(key, mask);
+		for (; values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				V old = (V) values[i];
+				values[i] = value;
+				return old;
+			}
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (++size * 2 > keys.length) {
+			grow();
+		}
+		return null;
+	}
+
+	// remove removes the mapping for key, returning its value or null.
+	@SuppressWarnings("unchecked")
+	V remove(long key) {
+		int i = slot(key, mask);
+		for (; values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				V old = (V) values[i];
+				shiftBack(i);
+				size--;
+				return old;
+			}
+		}
+		return null;
+	}
+
+	// shiftBack empties slot i, moving back any later entry of the same
+	// probe run that would otherwise become unreachable.
+	private void shiftBack(int i) {
+		int j = i;
+		for (;;) {
+			j = (j + 1) & mask;
+			if (values[j] == null) {
+				break;
+			}
+			int home = slot(keys[j], mask);
+			// Move j to i if its home slot is not within (i, j].
+			boolean between = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+			if (!between) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				i = j;
+			}
+		}
+		values[i] = null;
+	}
+
+	void clear() {
+		if (size == 0) {
+			return;
+		}
+		for (int i = 0; i < values.length; i++) {
+			values[i] = null;
+		}
+		size = 0;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new Object[oldValues.length * 2];
+		mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] == null) {
+				continue;
+			}
+			int j = slot(oldKeys[i], mask);
+			while (values[j] != null) {
+				j = (j + 1) & mask;
+			}
+			keys[j] = oldKeys[i];
+			values[j] = oldValues[i];
+		}
+	}
+}
@@ -0,0 +1,244 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Metrics records how often the hot operations of WifiApControl run, how
+// often they fail, and how long they take, in fixed-bucket histograms. It
+// also counts the ARP rows scanned and accepted, and the probe outcomes.
+//
+// Recording is lock-free and does not allocate. Snapshots can be taken at
+// any time, or published to the registered sinks to ship them elsewhere.
+// See WifiApControl.enableMetrics.
+public final class Metrics {
+
+	// OP_INVOKE is a reflective call to a hidden WifiManager method.
+	public static final int OP_INVOKE = 0;
+
+	// OP_ARP_PARSE is a read of /proc/net/arp.
+	public static final int OP_ARP_PARSE = 1;
+
+	// OP_NEIGHBOUR_DUMP is a read of the neighbour table via netlink.
+	public static final int OP_NEIGHBOUR_DUMP = 2;
+
+	// OP_PROBE is a single reachability probe of a client.
+	public static final int OP_PROBE = 3;
+
+	public static final int OPERATIONS = 4;
+
+	private static final String[] OP_NAMES = { "invoke", "arp_parse", "neighbour_dump", "probe" };
+
+	// BUCKET_BOUNDS holds the inclusive upper bound of every histogram
+	// bucket, in microseconds. A final bucket holds anything slower.
+	private static final long[] BUCKET_BOUNDS = {
+		10, 20, 50, 100, 200, 500,
+		1000, 2000, 5000, 10000, 20000, 50000,
+		100000, 200000, 500000, 1000000, 2000000, 5000000,
+	};
+
+	public static final int BUCKETS = BUCKET_BOUNDS.length + 1;
+
+	// Sink is an interface to receive the snapshots passed to publish.
+	public interface Sink {
+
+		void onSnapshot(Snapshot snapshot);
+	}
+
+	// Snapshot is a consistent-enough copy of all the metrics at one
+	// point in time. Counters keep going up until reset, so rates can be
+	// computed from the difference between two snapshots.
+	public static final class Snapshot {
+
+		// time is when the snapshot was taken, in
+		// System.currentTimeMillis time.
+		public final long time;
+
+		// Indexed by the OP_ constants.
+		public final long[] counts;
+		public final long[] errors;
+		public final long[] totalMicros;
+
+		// histograms[op][i] counts the operations that took up to
+		// getBucketBound(i) microseconds.
+		public final long[][] histograms;
+
+		public final long arpRowsScanned;
+		public final long arpRowsAccepted;
+		public final long probesReachable;
+		public final long probesUnreachable;
+
+		Snapshot(long time, long[] counts, long[] errors, long[] totalMicros,
+				long[][] histograms, long arpRowsScanned, long arpRowsAccepted,
+				long probesReachable, long probesUnreachable) {
+			this.time = time;
+			this.counts = counts;
+			this.errors = errors;
+			this.totalMicros = totalMicros;
+			this.histograms = histograms;
+			this.arpRowsScanned = arpRowsScanned;
+			this.arpRowsAccepted = arpRowsAccepted;
+			this.probesReachable = probesReachable;
+			this.probesUnreachable = probesUnreachable;
+		}
+
+		// percentile returns an upper bound of the latency of the given
+		// fraction of operations, such as 0.99, in microseconds. It is
+		// Long.MAX_VALUE if those fall in the last bucket, and 0 if
+		// there were none.
+		public long percentile(int op, double fraction) {
+			long[] h = histograms[op];
+			long total = 0;
+			for (long n : h) {
+				total += n;
+			}
+			if (total == 0) {
+				return 0;
+			}
+			long want = (long) Math.ceil(total * fraction);
+			long seen = 0;
+			for (int i = 0; i < h.length; i++) {
+				seen += h[i];
+				if (seen >= want) {
+					return getBucketBound(i);
+				}
+			}
+			return Long.MAX_VALUE;
+		}
+
+		// probeSuccessRatio returns the fraction of probes that found
+		// the client reachable, or 0 if there were none.
+		public double probeSuccessRatio() {
+			long total = probesReachable + probesUnreachable;
+			return total == 0 ? 0 : (double) probesReachable / total;
+		}
+	}
+
+	private final AtomicLongArray counts = new AtomicLongArray(OPERATIONS);
+	private final AtomicLongArray errors = new AtomicLongArray(OPERATIONS);
+	private final AtomicLongArray totalMicros = new AtomicLongArray(OPERATIONS);
+	private final AtomicLongArray buckets = new AtomicLongArray(OPERATIONS * BUCKETS);
+	private final AtomicLong arpRowsScanned = new AtomicLong();
+	private final AtomicLong arpRowsAccepted = new AtomicLong();
+	private final AtomicLong probesReachable = new AtomicLong();
+	private final AtomicLong probesUnreachable = new AtomicLong();
+	private final List<Sink> sinks = new CopyOnWriteArrayList<>();
+
+	Metrics() {
+	}
+
+	// getOperationName returns a short name for one of the OP_ constants,
+	// such as "arp_parse".
+	public static String getOperationName(int op) {
+		return OP_NAMES[op];
+	}
+
+	// getBucketBound returns the upper bound of bucket i in microseconds,
+	// or Long.MAX_VALUE for the last one.
+	public static long getBucketBound(int i) {
+		return i < BUCKET_BOUNDS.length ? BUCKET_BOUNDS[i] : Long.MAX_VALUE;
+	}
+
+	// record adds one operation that started at startNanos, as given by
+	// System.nanoTime.
+	void record(int op, long startNanos, boolean failed) {
+		recordMicros(op, (System.nanoTime() - startNanos) / 1000, failed);
+	}
+
+	void recordMicros(int op, long micros, boolean failed) {
+		int b = 0;
+		while (b < BUCKET_BOUNDS.length && micros > BUCKET_BOUNDS[b]) {
+			b++;
+		}
+		counts.incrementAndGet(op);
+		if (failed) {
+			errors.incrementAndGet(op);
+		}
+		totalMicros.addAndGet(op, micros);
+		buckets.incrementAndGet(op * BUCKETS + b);
+	}
+
+	void recordArpRows(int scanned, int accepted) {
+		arpRowsScanned.addAndGet(scanned);
+		arpRowsAccepted.addAndGet(accepted);
+	}
+
+	void recordProbe(boolean reachable) {
+		if (reachable) {
+			probesReachable.incrementAndGet();
+		} else {
+			probesUnreachable.incrementAndGet();
+		}
+	}
+
+	public void addSink(Sink sink) {
+		sinks.add(sink);
+	}
+
+	public void removeSink(Sink sink) {
+		sinks.remove(sink);
+	}
+
+	// snapshot copies all the metrics. Counters are read one by one while
+	// recording goes on, so they may be off by the operations in flight.
+	public Snapshot snapshot() {
+		long[] c = new long[OPERATIONS];
+		long[] e = new long[OPERATIONS];
+		long[] t = new long[OPERATIONS];
+		long[][] h = new long[OPERATIONS][BUCKETS];
+		for (int op = 0; op < OPERATIONS; op++) {
+			c[op] = counts.get(op);
+			e[op] = errors.get(op);
+			t[op] = totalMicros.get(op);
+			for (int b = 0; b < BUCKETS; b++) {
+				h[op][b] = buckets.get(op * BUCKETS + b);
+			}
+		}
+		return new Snapshot(System.currentTimeMillis(), c, e, t, h,
+				arpRowsScanned.get(), arpRowsAccepted.get(),
+				probesReachable.get(), probesUnreachable.get());
+	}
+
+	// publish takes a snapshot and passes it to every sink, on the calling
+	// thread. It returns the snapshot too.
+	public Snapshot publish() {
+		Snapshot s = snapshot();
+		for (Sink sink : sinks) {
+			sink.onSnapshot(s);
+		}
+		return s;
+	}
+
+	// reset sets every metric back to zero.
+	public void reset() {
+		for (int op = 0; op < OPERATIONS; op++) {
+			counts.set(op, 0);
+			errors.set(op, 0);
+			totalMicros.set(op, 0);
+		}
+		for (int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, 0);
+		}
+		arpRowsScanned.set(0);
+		arpRowsAccepted.set(0);
+		probesReachable.set(0);
+		probesUnreachable.set(0);
+	}
+}
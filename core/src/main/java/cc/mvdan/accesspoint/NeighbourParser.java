@@ -0,0 +1,191 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// NeighbourParser builds RTM_GETNEIGH dump requests and decodes the
+// RTM_NEWNEIGH replies of the kernel, as sent over a NETLINK_ROUTE socket.
+// Both are in the native byte order, as netlink is.
+//
+// Each reply message is laid out as follows, with every part aligned to
+// four bytes:
+//
+//	struct nlmsghdr  (16 bytes)
+//	struct ndmsg     (12 bytes)
+//	struct rtattr... (NDA_DST, NDA_LLADDR, NDA_CACHEINFO, ...)
+final class NeighbourParser {
+
+	// Values from linux/netlink.h, linux/rtnetlink.h and
+	// linux/neighbour.h.
+	static final int NETLINK_ROUTE = 0;
+
+	private static final int NLMSG_ERROR = 2;
+	private static final int NLMSG_DONE = 3;
+	private static final int RTM_NEWNEIGH = 28;
+	private static final int RTM_GETNEIGH = 30;
+	private static final int NLM_F_REQUEST = 0x01;
+	private static final int NLM_F_DUMP = 0x300;
+
+	private static final int NDA_DST = 1;
+	private static final int NDA_LLADDR = 2;
+	private static final int NDA_CACHEINFO = 3;
+
+	private static final int NLMSG_HDRLEN = 16;
+	private static final int NDMSG_LEN = 12;
+	private static final int RTA_HDRLEN = 4;
+
+	static final int AF_INET = 2;
+	static final int AF_INET6 = 10;
+
+	static final int NUD_INCOMPLETE = 0x01;
+	static final int NUD_REACHABLE  = 0x02;
+	static final int NUD_STALE      = 0x04;
+	static final int NUD_DELAY      = 0x08;
+	static final int NUD_PROBE      = 0x10;
+	static final int NUD_FAILED     = 0x20;
+	static final int NUD_NOARP      = 0x40;
+	static final int NUD_PERMANENT  = 0x80;
+
+	// The ages in struct nda_cacheinfo are in USER_HZ ticks.
+	private static final int MILLIS_PER_TICK = 10;
+
+	// Visitor is called once for every neighbour entry with a destination
+	// address on the interfaces the parser was created for.
+	interface Visitor {
+
+		// visit receives the index of the interface of the entry, the
+		// address family (AF_INET or AF_INET6), the destination
+		// address in addr[addrOff:addrOff+addrLen], the MAC packed
+		// big-endian in a long or -1 if there is none, the NUD state,
+		// and how many milliseconds ago the entry was last confirmed
+		// and last used, or -1 if unknown. addr must not be retained.
+		void visit(int ifindex, int family, byte[] addr, int addrOff, int addrLen, long hwAddr,
+				int nudState, long confirmedAgo, long usedAgo);
+	}
+
+	private final int ifindex;
+	private final ByteBuffer bb;
+
+	// NeighbourParser decodes replies read into buf. Only entries on the
+	// interface with index ifindex are visited, or on any interface if
+	// ifindex is 0.
+	NeighbourParser(byte[] buf, int ifindex) {
+		this.ifindex = ifindex;
+		this.bb = ByteBuffer.wrap(buf).order(ByteOrder.nativeOrder());
+	}
+
+	// dumpRequest writes an RTM_GETNEIGH dump request for all address
+	// families into buf, returning its length.
+	static int dumpRequest(byte[] buf, int seq) {
+		int len = NLMSG_HDRLEN + NDMSG_LEN;
+		ByteBuffer b = ByteBuffer.wrap(buf, 0, len).order(ByteOrder.nativeOrder());
+		b.putInt(len);
+		b.putShort((short) RTM_GETNEIGH);
+		b.putShort((short) (NLM_F_REQUEST | NLM_F_DUMP));
+		b.putInt(seq);
+		b.putInt(0);
+		for (int i = 0; i < NDMSG_LEN; i++) {
+			b.put((byte) 0);
+		}
+		return len;
+	}
+
+	// parse decodes the messages in the first len bytes of the buffer.
+	// It returns true once the end of the dump has been reached.
+	boolean parse(int len, Visitor visitor) throws IOException {
+		byte[] buf = bb.array();
+		int pos = 0;
+		while (pos + NLMSG_HDRLEN <= len) {
+			int msgLen = bb.getInt(pos);
+			int type = bb.getShort(pos + 4) & 0xffff;
+			if (msgLen < NLMSG_HDRLEN || pos + msgLen > len) {
+				throw new IOException("truncated netlink message");
+			}
+			switch (type) {
+			case NLMSG_DONE:
+				return true;
+			case NLMSG_ERROR:
+				int errno = -bb.getInt(pos + NLMSG_HDRLEN);
+				throw new IOException("netlink error, errno " + errno);
+			case RTM_NEWNEIGH:
+				parseNeigh(buf, pos + NLMSG_HDRLEN, pos + msgLen, visitor);
+				break;
+			}
+			pos += align(msgLen);
+		}
+		return false;
+	}
+
+	private void parseNeigh(byte[] buf, int pos, int end, Visitor visitor) {
+		if (end - pos < NDMSG_LEN) {
+			return;
+		}
+		int family = buf[pos] & 0xff;
+		int index = bb.getInt(pos + 4);
+		int state = bb.getShort(pos + 8) & 0xffff;
+		if ((ifindex != 0 && index != ifindex) || (family != AF_INET && family != AF_INET6)) {
+			return;
+		}
+		int addrOff = -1;
+		int addrLen = 0;
+		long hwAddr = -1;
+		long confirmedAgo = -1;
+		long usedAgo = -1;
+		pos += NDMSG_LEN;
+		while (pos + RTA_HDRLEN <= end) {
+			int rtaLen = bb.getShort(pos) & 0xffff;
+			int rtaType = bb.getShort(pos + 2) & 0xffff;
+			if (rtaLen < RTA_HDRLEN || pos + rtaLen > end) {
+				break;
+			}
+			int data = pos + RTA_HDRLEN;
+			int dataLen = rtaLen - RTA_HDRLEN;
+			switch (rtaType) {
+			case NDA_DST:
+				addrOff = data;
+				addrLen = dataLen;
+				break;
+			case NDA_LLADDR:
+				if (dataLen == 6) {
+					hwAddr = 0;
+					for (int i = 0; i < 6; i++) {
+						hwAddr = (hwAddr << 8) | (buf[data + i] & 0xff);
+					}
+				}
+				break;
+			case NDA_CACHEINFO:
+				if (dataLen >= 8) {
+					confirmedAgo = (bb.getInt(data) & 0xffffffffL) * MILLIS_PER_TICK;
+					usedAgo = (bb.getInt(data + 4) & 0xffffffffL) * MILLIS_PER_TICK;
+				}
+				break;
+			}
+			pos += align(rtaLen);
+		}
+		if (addrOff < 0 || addrLen != (family == AF_INET ? 4 : 16)) {
+			return;
+		}
+		visitor.visit(index, family, buf, addrOff, addrLen, hwAddr, state, confirmedAgo, usedAgo);
+	}
+
+	private static int align(int len) {
+		return (len + 3) & ~3;
+	}
+}
@@ -0,0 +1,333 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// NioProber multiplexes all of its probes over a single Selector, so that a
+// single thread can probe hundreds of addresses within one timeout window.
+//
+// Each probe opens non-blocking TCP connections to a few common ports and
+// sends a UDP datagram to the echo port. The address is reachable as soon as
+// anything answers: an accepted or refused connection, an echo reply, or an
+// ICMP port unreachable. Only the host itself can produce any of those.
+//
+// If the selector thread dies because of an I/O error, the probes it had
+// are reported as unreachable and the next probe starts a new one.
+final class NioProber implements Prober {
+
+	private static final Logger LOG = Logger.getLogger("WifiApControl");
+
+	static final int[] TCP_PORTS = { 80, 443 };
+	static final int UDP_PORT = 7;
+
+	private final int[] tcpPorts;
+	private final int udpPort;
+
+	// All guarded by this. pending only holds probes for the current
+	// loop; a loop that dies takes what is left in it.
+	private final Map<String, Probe> inFlight = new HashMap<>();
+	private final ConcurrentLinkedQueue<Probe> pending = new ConcurrentLinkedQueue<>();
+	private Loop loop;
+	private boolean closed;
+
+	NioProber() {
+		this(TCP_PORTS, UDP_PORT);
+	}
+
+	NioProber(int[] tcpPorts, int udpPort) {
+		this.tcpPorts = tcpPorts;
+		this.udpPort = udpPort;
+	}
+
+	private static final class Probe {
+
+		final String ipAddr;
+		final int timeout;
+		final List<Callback> callbacks = new ArrayList<>(1);
+		final List<SelectableChannel> channels = new ArrayList<>(3);
+		long startedAt;
+		long deadline;
+		int open;
+
+		Probe(String ipAddr, int timeout) {
+			this.ipAddr = ipAddr;
+			this.timeout = timeout;
+		}
+	}
+
+	// probe queues ipAddr on the selector thread, starting it if needed. If
+	// the address is already being probed, the callback shares the result
+	// of that probe.
+	public void probe(String ipAddr, int timeout, Callback callback) {
+		Loop l;
+		synchronized (this) {
+			if (!closed && loop == null) {
+				try {
+					loop = new Loop(Selector.open());
+				} catch (IOException e) {
+					// try again with the next probe
+				}
+				if (loop != null) {
+					loop.thread.start();
+				}
+			}
+			l = loop;
+			if (l != null) {
+				Probe p = inFlight.get(ipAddr);
+				if (p != null) {
+					p.callbacks.add(callback);
+					return;
+				}
+				p = new Probe(ipAddr, timeout);
+				p.callbacks.add(callback);
+				inFlight.put(ipAddr, p);
+				pending.add(p);
+			}
+		}
+		if (l == null) {
+			callback.onProbeResult(false, 0);
+			return;
+		}
+		l.selector.wakeup();
+	}
+
+	public void close() {
+		Loop l;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			l = loop;
+		}
+		if (l != null) {
+			l.thread.interrupt();
+			l.selector.wakeup();
+		}
+	}
+
+	// Loop is one selector thread, along with the state only it touches.
+	private final class Loop implements Runnable {
+
+		final Selector selector;
+		final Thread thread;
+		final List<Probe> active = new ArrayList<>();
+		final ByteBuffer payload = ByteBuffer.allocate(1);
+		final ByteBuffer readBuf = ByteBuffer.allocate(64);
+
+		Loop(Selector selector) {
+			this.selector = selector;
+			this.thread = new Thread(this, "WifiApControl-nio-probe");
+			thread.setDaemon(true);
+		}
+
+		public void run() {
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					long now = System.nanoTime() / 1000000;
+					Probe p;
+					while ((p = pending.poll()) != null) {
+						start(p, now);
+					}
+					// With nothing active, block until a probe is
+					// queued.
+					long wait = 0;
+					for (Probe a : active) {
+						long left = Math.max(1, a.deadline - now);
+						if (wait == 0 || left < wait) {
+							wait = left;
+						}
+					}
+					selector.select(wait);
+
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						handle(key);
+					}
+					expire(System.nanoTime() / 1000000);
+				}
+			} catch (IOException | RuntimeException e) {
+				// fall through to fail everything
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// nothing useful to do
+			}
+			// Once this loop is no longer the current one, no more
+			// probes can be queued for it.
+			synchronized (NioProber.this) {
+				if (loop == this) {
+					loop = null;
+				}
+				Probe p;
+				while ((p = pending.poll()) != null) {
+					active.add(p);
+				}
+			}
+			while (!active.isEmpty()) {
+				finish(active.get(active.size() - 1), false);
+			}
+		}
+
+		private void start(Probe p, long now) {
+			p.startedAt = now;
+			p.deadline = now + p.timeout;
+			active.add(p);
+			InetAddress addr;
+			try {
+				addr = InetAddress.getByName(p.ipAddr);
+			} catch (IOException e) {
+				finish(p, false);
+				return;
+			}
+			for (int port : tcpPorts) {
+				try {
+					SocketChannel sc = SocketChannel.open();
+					p.channels.add(sc);
+					sc.configureBlocking(false);
+					if (sc.connect(new InetSocketAddress(addr, port))) {
+						finish(p, true);
+						return;
+					}
+					sc.register(selector, SelectionKey.OP_CONNECT, p);
+					p.open++;
+				} catch (ConnectException e) {
+					finish(p, true);
+					return;
+				} catch (IOException e) {
+					// this port cannot tell us anything
+				}
+			}
+			try {
+				DatagramChannel dc = DatagramChannel.open();
+				p.channels.add(dc);
+				dc.configureBlocking(false);
+				dc.connect(new InetSocketAddress(addr, udpPort));
+				payload.clear();
+				dc.write(payload);
+				dc.register(selector, SelectionKey.OP_READ, p);
+				p.open++;
+			} catch (PortUnreachableException e) {
+				finish(p, true);
+				return;
+			} catch (IOException e) {
+				// no UDP probe then
+			}
+			if (p.open == 0) {
+				finish(p, false);
+			}
+		}
+
+		// handle processes a ready channel. A ConnectException means that
+		// the connection was refused, so the host answered. An unreachable
+		// host shows up as NoRouteToHostException or as our own timeout,
+		// which is far shorter than the kernel's connect timeout.
+		private void handle(SelectionKey key) {
+			Probe p = (Probe) key.attachment();
+			if (!key.isValid()) {
+				return;
+			}
+			boolean answered = false;
+			try {
+				if (key.isConnectable()) {
+					if (!((SocketChannel) key.channel()).finishConnect()) {
+						return;
+					}
+					answered = true;
+				} else if (key.isReadable()) {
+					readBuf.clear();
+					((DatagramChannel) key.channel()).read(readBuf);
+					answered = true;
+				}
+			} catch (ConnectException | PortUnreachableException e) {
+				answered = true;
+			} catch (IOException e) {
+				// e.g. no route to host
+			}
+			if (answered) {
+				finish(p, true);
+				return;
+			}
+			key.cancel();
+			closeQuietly(key.channel());
+			if (--p.open == 0) {
+				finish(p, false);
+			}
+		}
+
+		private void expire(long now) {
+			for (int i = active.size() - 1; i >= 0; i--) {
+				Probe p = active.get(i);
+				if (p.deadline <= now) {
+					finish(p, false);
+				}
+			}
+		}
+
+		private void finish(Probe p, boolean reachable) {
+			long rtt = System.nanoTime() / 1000000 - p.startedAt;
+			active.remove(p);
+			for (SelectableChannel ch : p.channels) {
+				closeQuietly(ch);
+			}
+			p.channels.clear();
+			synchronized (NioProber.this) {
+				inFlight.remove(p.ipAddr);
+			}
+			// No callbacks can be added once the probe is out of the
+			// map. One that throws must not take down the loop and
+			// every other probe with it.
+			for (Callback cb : p.callbacks) {
+				try {
+					cb.onProbeResult(reachable, rtt);
+				} catch (RuntimeException e) {
+					LOG.log(Level.WARNING, "probe callback failed", e);
+				}
+			}
+		}
+	}
+
+	private static void closeQuietly(SelectableChannel ch) {
+		try {
+			ch.close();
+		} catch (IOException e) {
+			// nothing useful to do
+		}
+	}
+}
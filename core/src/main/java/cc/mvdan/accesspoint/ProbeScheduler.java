@@ -0,0 +1,149 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// ProbeScheduler runs reachability probes on a fixed set of long-lived
+// threads. Probes for an address that is already being probed are not run
+// again; the caller is attached to the probe in flight instead.
+final class ProbeScheduler implements Prober {
+
+	static final int DEFAULT_THREADS = 8;
+
+	// Check is what a probe runs on its thread.
+	interface Check {
+		boolean isReachable(String ipAddr, int timeout) throws IOException;
+	}
+
+	// INET_CHECK probes with InetAddress.isReachable.
+	static final Check INET_CHECK = new Check() {
+		public boolean isReachable(String ipAddr, int timeout) throws IOException {
+			return InetAddress.getByName(ipAddr).isReachable(timeout);
+		}
+	};
+
+	private final ThreadPoolExecutor executor;
+	private final Check check;
+	private final Map<String, Probe> inFlight = new HashMap<>();
+
+	ProbeScheduler(int threads) {
+		this(threads, INET_CHECK);
+	}
+
+	ProbeScheduler(int threads, Check check) {
+		this.check = check;
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private int count;
+
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "WifiApControl-probe-" + (++count));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	// setThreads changes the number of threads that run probes
+	// concurrently.
+	synchronized void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("need at least one probe thread");
+		}
+		if (threads > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(threads);
+			executor.setCorePoolSize(threads);
+		} else {
+			executor.setCorePoolSize(threads);
+			executor.setMaximumPoolSize(threads);
+		}
+	}
+
+	private final class Probe implements Runnable {
+
+		final String ipAddr;
+		final int timeout;
+		final List<Callback> callbacks = new ArrayList<>(1);
+
+		Probe(String ipAddr, int timeout) {
+			this.ipAddr = ipAddr;
+			this.timeout = timeout;
+		}
+
+		public void run() {
+			boolean reachable = false;
+			long start = System.nanoTime();
+			try {
+				reachable = check.isReachable(ipAddr, timeout);
+			} catch (IOException e) {
+				// treated as unreachable
+			}
+			finish(this, reachable, (System.nanoTime() - start) / 1000000);
+		}
+	}
+
+	// probe runs the check on one of the probe threads. If
+	// the address is already being probed, the callback shares the result
+	// of that probe.
+	public void probe(String ipAddr, int timeout, Callback callback) {
+		Probe p;
+		synchronized (inFlight) {
+			p = inFlight.get(ipAddr);
+			if (p != null) {
+				p.callbacks.add(callback);
+				return;
+			}
+			p = new Probe(ipAddr, timeout);
+			p.callbacks.add(callback);
+			inFlight.put(ipAddr, p);
+		}
+		try {
+			executor.execute(p);
+		} catch (RejectedExecutionException e) {
+			finish(p, false, 0);
+		}
+	}
+
+	private void finish(Probe p, boolean reachable, long rtt) {
+		synchronized (inFlight) {
+			inFlight.remove(p.ipAddr);
+		}
+		// No callbacks can be added once the probe is out of the map.
+		for (Callback cb : p.callbacks) {
+			cb.onProbeResult(reachable, rtt);
+		}
+	}
+
+	// close stops the probe threads. Probes still queued are dropped.
+	public void close() {
+		List<Runnable> dropped = executor.shutdownNow();
+		for (Runnable r : dropped) {
+			finish((Probe) r, false, 0);
+		}
+	}
+}
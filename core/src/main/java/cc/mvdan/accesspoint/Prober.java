@@ -0,0 +1,37 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+// Prober checks whether addresses are reachable, reporting each result
+// asynchronously.
+interface Prober {
+
+	// Callback receives the result of a probe, on a thread owned by the
+	// prober. rtt is how long the address took to answer, in
+	// milliseconds, and is only meaningful if it was reachable.
+	interface Callback {
+		void onProbeResult(boolean reachable, long rtt);
+	}
+
+	// probe checks whether ipAddr is reachable within timeout milliseconds
+	// and reports it to the callback exactly once.
+	void probe(String ipAddr, int timeout, Callback callback);
+
+	// close stops the prober. Pending and later probes report every
+	// address as unreachable.
+	void close();
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+// RateWindow keeps the last samples of a set of counters in a fixed-size
+// ring, and computes per-second rates over all the samples it holds. It is
+// not safe for concurrent use.
+final class RateWindow {
+
+	private final long[] times;
+	private final long[][] values;
+	private int head;
+	private int filled;
+
+	RateWindow(int size, int counters) {
+		if (size < 2) {
+			throw new IllegalArgumentException("a window needs at least two samples");
+		}
+		times = new long[size];
+		values = new long[counters][size];
+	}
+
+	// add records the counters at time, in milliseconds. If any counter
+	// went backwards, such as when the interface was recreated, the older
+	// samples are dropped.
+	void add(long time, long[] sample) {
+		if (filled > 0) {
+			int last = (head + times.length - 1) % times.length;
+			for (int i = 0; i < values.length; i++) {
+				if (sample[i] < values[i][last]) {
+					filled = 0;
+					break;
+				}
+			}
+		}
+		times[head] = time;
+		for (int i = 0; i < values.length; i++) {
+			values[i][head] = sample[i];
+		}
+		head = (head + 1) % times.length;
+		if (filled < times.length) {
+			filled++;
+		}
+	}
+
+	void clear() {
+		filled = 0;
+	}
+
+	// rate returns how much the counter grew per second between the
+	// oldest and newest samples, or 0 if there are fewer than two.
+	double rate(int counter) {
+		if (filled < 2) {
+			return 0;
+		}
+		int newest = (head + times.length - 1) % times.length;
+		int oldest = (head + times.length - filled) % times.length;
+		long dt = times[newest] - times[oldest];
+		if (dt <= 0) {
+			return 0;
+		}
+		return (values[counter][newest] - values[counter][oldest]) * 1000.0 / dt;
+	}
+}
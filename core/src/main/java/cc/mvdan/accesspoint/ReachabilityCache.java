@@ -0,0 +1,142 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// ReachabilityCache remembers the result of recent probes for a while, and
+// estimates the round-trip time of each client to pick its probe timeout.
+//
+// The timeout follows the retransmission timeout of TCP (RFC 6298): a
+// smoothed RTT plus four times its variance, clamped between MIN_TIMEOUT
+// and the timeout asked for by the caller. A probe that times out before
+// reaching that maximum is not trusted as a negative; instead, the timeout
+// of the client is doubled for the next probe.
+final class ReachabilityCache {
+
+	static final long DEFAULT_TTL = 5000;
+	static final int MIN_TIMEOUT = 50;
+
+	// Entries not touched for this long are dropped, RTT history and all.
+	private static final long MAX_AGE = 10 * 60 * 1000;
+
+	private static final class Entry {
+		boolean reachable;
+		long checkedAt;
+		boolean trusted;
+		boolean known;
+		boolean hasRtt;
+		double srtt;
+		double rttvar;
+		int rto;
+		long touchedAt;
+	}
+
+	private final Map<String, Entry> entries = new HashMap<>();
+	private long ttl = DEFAULT_TTL;
+
+	static long now() {
+		return System.nanoTime() / 1000000;
+	}
+
+	// setTtl sets for how long a probe result is reused, in milliseconds.
+	// Zero disables reusing results, but RTTs are still estimated.
+	synchronized void setTtl(long ttl) {
+		this.ttl = ttl;
+	}
+
+	// cached returns 1 if key was reachable and 0 if it was not, as long
+	// as that is known from a recent enough probe. Otherwise, it returns
+	// -1.
+	synchronized int cached(String key, long now) {
+		Entry e = entries.get(key);
+		if (e == null || !e.trusted || now - e.checkedAt >= ttl) {
+			return -1;
+		}
+		return e.reachable ? 1 : 0;
+	}
+
+	// timeout returns the probe timeout to use for key, never above
+	// maxTimeout.
+	synchronized int timeout(String key, int maxTimeout) {
+		Entry e = entries.get(key);
+		if (e == null || e.rto <= 0) {
+			return maxTimeout;
+		}
+		return Math.min(e.rto, maxTimeout);
+	}
+
+	// record stores the result of a probe of key that used the given
+	// timeout. rtt is only used if the probe succeeded. Returns whether
+	// this is the first trusted result for key, or one that differs from
+	// the previous.
+	synchronized boolean record(String key, boolean reachable, long rtt,
+			int timeout, int maxTimeout, long now) {
+		Entry e = entries.get(key);
+		if (e == null) {
+			e = new Entry();
+			entries.put(key, e);
+		}
+		e.touchedAt = now;
+		if (reachable) {
+			if (!e.hasRtt) {
+				e.srtt = rtt;
+				e.rttvar = rtt / 2.0;
+				e.hasRtt = true;
+			} else {
+				e.rttvar = 0.75 * e.rttvar + 0.25 * Math.abs(e.srtt - rtt);
+				e.srtt = 0.875 * e.srtt + 0.125 * rtt;
+			}
+			e.rto = clamp((int) Math.ceil(e.srtt + 4 * e.rttvar), maxTimeout);
+			boolean changed = !e.known || !e.reachable;
+			e.reachable = true;
+			e.trusted = true;
+			e.known = true;
+			e.checkedAt = now;
+			return changed;
+		}
+		if (timeout < maxTimeout) {
+			// Our own estimate may have been too tight; back off
+			// and probe again next time.
+			e.rto = clamp(timeout * 2, maxTimeout);
+			e.trusted = false;
+			return false;
+		}
+		boolean changed = !e.known || e.reachable;
+		e.reachable = false;
+		e.trusted = true;
+		e.known = true;
+		e.checkedAt = now;
+		return changed;
+	}
+
+	private static int clamp(int timeout, int maxTimeout) {
+		return Math.max(MIN_TIMEOUT, Math.min(timeout, maxTimeout));
+	}
+
+	// prune drops the entries that have not been touched in a long time.
+	synchronized void prune(long now) {
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			if (now - it.next().touchedAt > MAX_AGE) {
+				it.remove();
+			}
+		}
+	}
+}
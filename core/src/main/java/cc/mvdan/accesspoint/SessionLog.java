@@ -0,0 +1,268 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+
+// SessionLog appends client and AP state events to a directory of
+// memory-mapped segment files, to be analysed later via SessionLogReader.
+//
+// Every event is a fixed-width record written straight into the mapping, so
+// appending neither allocates nor makes any system calls. The kernel writes
+// the pages back on its own; nothing is synced unless flush is called. Once
+// a segment is full, the next one is created, and the oldest ones are
+// deleted to keep at most maxSegments of them.
+//
+// See WifiApControl.startSessionLog.
+public final class SessionLog {
+
+	// EVENT_OPEN is written every time a log is opened. Sessions that
+	// were still open before it were cut short, e.g. by a restart.
+	public static final int EVENT_OPEN = 1;
+
+	// EVENT_JOIN and EVENT_LEAVE are written when a client appears in or
+	// disappears from the neighbour table. state holds the ARP state.
+	public static final int EVENT_JOIN = 2;
+	public static final int EVENT_LEAVE = 3;
+
+	// EVENT_IP_CHANGE is written when a client moves to another IPv4
+	// address. aux holds the old address.
+	public static final int EVENT_IP_CHANGE = 4;
+
+	// EVENT_REACHABLE and EVENT_UNREACHABLE are written when a probe
+	// result differs from the previous one for the same client.
+	public static final int EVENT_REACHABLE = 5;
+	public static final int EVENT_UNREACHABLE = 6;
+
+	// EVENT_AP_STATE is written on AP state transitions. state holds the
+	// new state and aux the old one.
+	public static final int EVENT_AP_STATE = 7;
+
+	// AP_STATE_ENABLED is WifiApControl.STATE_ENABLED, which core cannot
+	// see; SessionLogTest in the library checks that they match. Clients
+	// cannot be connected in any other state.
+	static final int AP_STATE_ENABLED = 13;
+
+	// A record is laid out as follows, in big endian:
+	//
+	//   0  time in milliseconds since the epoch (long)
+	//   8  MAC, packed into the lower 48 bits (long)
+	//  16  IPv4 address, packed (int)
+	//  20  event type (int)
+	//  24  state (int)
+	//  28  aux (int)
+	//
+	// Segments start with a header of the same size. Unused space is left
+	// zeroed, so the first record with a zero time marks the end.
+	static final int RECORD_SIZE = 32;
+	static final int HEADER_SIZE = RECORD_SIZE;
+
+	static final int MAGIC = 0x4150534c; // "APSL"
+	static final int VERSION = 1;
+
+	static final String PREFIX = "session-";
+	static final String SUFFIX = ".log";
+
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+	public static final int DEFAULT_MAX_SEGMENTS = 8;
+
+	private final File dir;
+	private final int segmentSize;
+	private final int maxSegments;
+
+	private MappedByteBuffer buf;
+	private long segment;
+
+	SessionLog(File dir, int segmentSize, int maxSegments) throws IOException {
+		if (segmentSize < HEADER_SIZE + RECORD_SIZE) {
+			throw new IllegalArgumentException("segment too small: " + segmentSize);
+		}
+		this.dir = dir;
+		this.segmentSize = segmentSize - segmentSize % RECORD_SIZE;
+		this.maxSegments = Math.max(1, maxSegments);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("could not create " + dir);
+		}
+		long[] segments = segments(dir);
+		if (segments.length == 0) {
+			rotate(0);
+		} else {
+			long last = segments[segments.length - 1];
+			if (!resume(last)) {
+				rotate(last + 1);
+			}
+		}
+		append(EVENT_OPEN, 0, 0, 0, 0);
+	}
+
+	SessionLog(File dir) throws IOException {
+		this(dir, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+	// segments returns the sequence numbers of the segments in dir, in
+	// ascending order.
+	static long[] segments(File dir) {
+		File[] files = dir.listFiles(new FileFilter() {
+			public boolean accept(File f) {
+				return sequence(f.getName()) >= 0;
+			}
+		});
+		if (files == null) {
+			return new long[0];
+		}
+		long[] seqs = new long[files.length];
+		for (int i = 0; i < files.length; i++) {
+			seqs[i] = sequence(files[i].getName());
+		}
+		Arrays.sort(seqs);
+		return seqs;
+	}
+
+	// sequence returns the sequence number of a segment file name, or -1
+	// if it is not one.
+	static long sequence(String name) {
+		if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+			return -1;
+		}
+		String num = name.substring(PREFIX.length(), name.length() - SUFFIX.length());
+		if (num.length() == 0 || num.length() > 18) {
+			return -1;
+		}
+		long seq = 0;
+		for (int i = 0; i < num.length(); i++) {
+			char c = num.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			seq = seq * 10 + (c - '0');
+		}
+		return seq;
+	}
+
+	static File segmentFile(File dir, long seq) {
+		return new File(dir, String.format(Locale.US, "%s%010d%s", PREFIX, seq, SUFFIX));
+	}
+
+	private static MappedByteBuffer map(File f, int size) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			if (raf.length() != size) {
+				raf.setLength(size);
+			}
+			// The mapping stays valid once the file is closed.
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			raf.close();
+		}
+	}
+
+	// resume maps an existing segment to continue appending to it.
+	// Returns false if it is not a segment of this size and version, or
+	// if it is already full.
+	private boolean resume(long seq) throws IOException {
+		File f = segmentFile(dir, seq);
+		if (f.length() != segmentSize) {
+			return false;
+		}
+		MappedByteBuffer b = map(f, segmentSize);
+		if (b.getInt(0) != MAGIC || b.getInt(4) != VERSION || b.getInt(8) != RECORD_SIZE) {
+			return false;
+		}
+		// Records are written in order, so the used ones are a prefix
+		// and the end can be found by bisecting.
+		int lo = 0;
+		int hi = (segmentSize - HEADER_SIZE) / RECORD_SIZE;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (b.getLong(HEADER_SIZE + mid * RECORD_SIZE) != 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		int pos = HEADER_SIZE + lo * RECORD_SIZE;
+		if (pos + RECORD_SIZE > segmentSize) {
+			return false;
+		}
+		b.position(pos);
+		buf = b;
+		segment = seq;
+		return true;
+	}
+
+	// rotate starts a new segment and drops the oldest ones if needed.
+	private void rotate(long seq) throws IOException {
+		File f = segmentFile(dir, seq);
+		MappedByteBuffer b = map(f, segmentSize);
+		b.putInt(0, MAGIC);
+		b.putInt(4, VERSION);
+		b.putInt(8, RECORD_SIZE);
+		b.position(HEADER_SIZE);
+		buf = b;
+		segment = seq;
+
+		long[] segments = segments(dir);
+		for (int i = 0; i < segments.length - maxSegments; i++) {
+			segmentFile(dir, segments[i]).delete();
+		}
+	}
+
+	// append writes a record with the current time. It only throws if a
+	// new segment was needed and could not be created, or if the log was
+	// closed.
+	synchronized void append(int type, long hwAddr, int ipAddr, int state, int aux) throws IOException {
+		MappedByteBuffer b = buf;
+		if (b == null) {
+			throw new IOException("session log is closed");
+		}
+		if (b.remaining() < RECORD_SIZE) {
+			rotate(segment + 1);
+			b = buf;
+		}
+		b.putLong(System.currentTimeMillis());
+		b.putLong(hwAddr);
+		b.putInt(ipAddr);
+		b.putInt(type);
+		b.putInt(state);
+		b.putInt(aux);
+	}
+
+	// flush forces the records written so far out to storage. This is
+	// never done by the log itself.
+	public synchronized void flush() {
+		if (buf != null) {
+			buf.force();
+		}
+	}
+
+	// close stops the log. The mapping is released once it is garbage
+	// collected, since there is no way to unmap it explicitly.
+	synchronized void close() {
+		buf = null;
+	}
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// SessionLogReader scans the segments written by a SessionLog. It only needs
+// the directory, so it can also be used away from the device, e.g. on a copy
+// of the files.
+//
+// Segments are mapped read-only and records are decoded in place, so a scan
+// does not copy or allocate per record. Records are assumed to be in time
+// order, which holds as long as the wall clock did not go backwards while
+// they were written; segments that end before the queried range are not
+// read at all.
+public final class SessionLogReader {
+
+	// Visitor is an interface to receive the records of a scan. See
+	// SessionLog for the meaning of each field per event type.
+	public interface Visitor {
+		void visit(long time, int type, long hwAddr, int ipAddr, int state, int aux);
+	}
+
+	// SessionVisitor is an interface to receive the client sessions found
+	// by sessions.
+	public interface SessionVisitor {
+
+		// visitSession is called for each period during which a MAC
+		// was connected. end is -1 if it still was at the end of the
+		// queried range. ipAddr is the last address it had.
+		void visitSession(long hwAddr, int ipAddr, long start, long end);
+	}
+
+	private final File dir;
+
+	public SessionLogReader(File dir) {
+		this.dir = dir;
+	}
+
+	// firstTime returns the time of the first record of a segment, or -1
+	// if it has none or cannot be read.
+	private static long firstTime(File f) {
+		try {
+			RandomAccessFile raf = new RandomAccessFile(f, "r");
+			try {
+				if (raf.length() < SessionLog.HEADER_SIZE + SessionLog.RECORD_SIZE) {
+					return -1;
+				}
+				raf.seek(SessionLog.HEADER_SIZE);
+				long t = raf.readLong();
+				return t != 0 ? t : -1;
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	// scan calls the visitor for every record with a time in [from, to).
+	// Segments that were rotated out while scanning are skipped.
+	public void scan(long from, long to, Visitor visitor) throws IOException {
+		long[] segments = SessionLog.segments(dir);
+		for (int i = 0; i < segments.length; i++) {
+			if (i + 1 < segments.length) {
+				// The next segment starting before from means
+				// that all of this one does too.
+				long next = firstTime(SessionLog.segmentFile(dir, segments[i + 1]));
+				if (next >= 0 && next < from) {
+					continue;
+				}
+			}
+			if (!scanSegment(SessionLog.segmentFile(dir, segments[i]), from, to, visitor)) {
+				return;
+			}
+		}
+	}
+
+	// scanSegment returns false once a record at or past to is found.
+	private static boolean scanSegment(File f, long from, long to, Visitor visitor) throws IOException {
+		MappedByteBuffer b;
+		RandomAccessFile raf;
+		try {
+			raf = new RandomAccessFile(f, "r");
+		} catch (IOException e) {
+			// deleted by the writer since listing
+			return true;
+		}
+		try {
+			b = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+		int limit = b.limit();
+		if (limit < SessionLog.HEADER_SIZE
+				|| b.getInt(0) != SessionLog.MAGIC
+				|| b.getInt(4) != SessionLog.VERSION
+				|| b.getInt(8) != SessionLog.RECORD_SIZE) {
+			return true;
+		}
+		for (int off = SessionLog.HEADER_SIZE; off + SessionLog.RECORD_SIZE <= limit; off += SessionLog.RECORD_SIZE) {
+			long time = b.getLong(off);
+			if (time == 0) {
+				break;
+			}
+			if (time >= to) {
+				return false;
+			}
+			if (time < from) {
+				continue;
+			}
+			visitor.visit(time, b.getInt(off + 20), b.getLong(off + 8),
+					b.getInt(off + 16), b.getInt(off + 24), b.getInt(off + 28));
+		}
+		return true;
+	}
+
+	// Open is a session that has not ended yet, as of the record being
+	// scanned.
+	private static final class Open {
+		long start;
+		long lastSeen;
+		int ipAddr;
+	}
+
+	// SessionCollector pairs joins with leaves, keyed by MAC.
+	private static final class SessionCollector implements Visitor {
+
+		static final long LAST_SEEN = -2;
+
+		final LongTable<Open> open = new LongTable<>();
+		final long from;
+		final SessionVisitor visitor;
+
+		SessionCollector(long from, SessionVisitor visitor) {
+			this.from = from;
+			this.visitor = visitor;
+		}
+
+		public void visit(long time, int type, long hwAddr, int ipAddr, int state, int aux) {
+			switch (type) {
+			case SessionLog.EVENT_OPEN:
+				// Whoever was connected before was last seen
+				// in the previous run.
+				endAll(LAST_SEEN);
+				return;
+			case SessionLog.EVENT_AP_STATE:
+				// Leaves may follow as clients are noticed
+				// gone, but the sessions ended here.
+				if (state != SessionLog.AP_STATE_ENABLED) {
+					endAll(time);
+				}
+				return;
+			case SessionLog.EVENT_JOIN:
+				if (open.get(hwAddr) == null) {
+					Open o = new Open();
+					o.start = time;
+					open.put(hwAddr, o);
+				}
+				break;
+			case SessionLog.EVENT_LEAVE:
+				Open o = open.remove(hwAddr);
+				if (o != null && time >= from) {
+					visitor.visitSession(hwAddr, ipAddr, o.start, time);
+				}
+				return;
+			}
+			Open o = open.get(hwAddr);
+			if (o != null) {
+				o.lastSeen = time;
+				o.ipAddr = ipAddr;
+			}
+		}
+
+		// endAll ends every open session at end, which is -1 to report
+		// them as still open, or LAST_SEEN for the time each was last
+		// seen.
+		void endAll(long end) {
+			for (int i = 0; i < open.capacity(); i++) {
+				Open o = open.valueAt(i);
+				if (o == null) {
+					continue;
+				}
+				long e = end == LAST_SEEN ? o.lastSeen : end;
+				if (e < 0 || e >= from) {
+					visitor.visitSession(open.keyAt(i), o.ipAddr, o.start, e);
+				}
+			}
+			open.clear();
+		}
+	}
+
+	// sessions calls the visitor for every client session that overlaps
+	// [from, to), so that e.g. sessions per MAC can be counted. Since a
+	// session may have started before from, all records before to are
+	// scanned. Sessions cut short by the AP going down end then, and those
+	// cut short by a restart end at the last record seen for them, as the
+	// time of the restart says nothing about when they left.
+	public void sessions(long from, long to, SessionVisitor visitor) throws IOException {
+		SessionCollector c = new SessionCollector(from, visitor);
+		scan(Long.MIN_VALUE, to, c);
+		c.endAll(-1);
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+// SingleFlight coalesces concurrent calls of the same operation. The first
+// caller runs it, and any caller that arrives while it is still running
+// waits for it and gets the same result instead of running it again. Calls
+// that arrive after it finished start a new run.
+//
+// A caller that joins a run may get a result that was read before it
+// arrived. When that is not good enough, such as after a write that the
+// operation reads back, invalidate makes the calls that follow start a new
+// run instead of joining one that started earlier.
+//
+// If the run throws, the callers waiting on it get the same exception.
+final class SingleFlight<V> {
+
+	// Task is the operation being coalesced.
+	interface Task<V> {
+		V run();
+	}
+
+	private static final class Call<V> {
+		int generation;
+		V result;
+		Throwable error;
+		boolean done;
+	}
+
+	private final Task<V> task;
+
+	// Guarded by this.
+	private Call<V> inFlight;
+	private int generation;
+
+	SingleFlight(Task<V> task) {
+		this.task = task;
+	}
+
+	// call returns the result of a run of the task, either started now or
+	// already running.
+	V call() {
+		Call<V> c;
+		boolean leader = false;
+		synchronized (this) {
+			c = inFlight;
+			if (c == null || c.generation != generation) {
+				c = new Call<>();
+				c.generation = generation;
+				inFlight = c;
+				leader = true;
+			}
+		}
+		if (!leader) {
+			return await(c);
+		}
+		try {
+			c.result = task.run();
+			return c.result;
+		} catch (RuntimeException | Error e) {
+			c.error = e;
+			throw e;
+		} finally {
+			synchronized (this) {
+				if (inFlight == c) {
+					inFlight = null;
+				}
+			}
+			synchronized (c) {
+				c.done = true;
+				c.notifyAll();
+			}
+		}
+	}
+
+	// invalidate makes later calls start a new run, even if one is already
+	// running. Callers already waiting on that run still get its result.
+	synchronized void invalidate() {
+		generation++;
+	}
+
+	// await waits for the leader of c to finish. Interrupts do not cut
+	// the wait short, as the result is due soon anyway, but are kept.
+	private static <V> V await(Call<V> c) {
+		boolean interrupted = false;
+		synchronized (c) {
+			while (!c.done) {
+				try {
+					c.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (c.error instanceof RuntimeException) {
+			throw (RuntimeException) c.error;
+		}
+		if (c.error instanceof Error) {
+			throw (Error) c.error;
+		}
+		return c.result;
+	}
+}
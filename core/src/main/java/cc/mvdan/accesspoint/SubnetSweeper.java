@@ -0,0 +1,103 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+
+// SubnetSweeper makes the kernel resolve every address of a subnet, so that
+// clients which have not sent anything yet show up in the neighbour table.
+//
+// It sends a single empty UDP datagram to the discard port of each host from
+// one socket. Nothing needs to answer: the kernel has to resolve the MAC of
+// each destination before sending, and every host that is present replies
+// to that ARP request. The datagrams are paced so as not to flood the
+// radio; at the default rate, the 253 other hosts of a /24 go out in bursts
+// of 20 every 10ms, so the sweep takes about 130ms.
+final class SubnetSweeper {
+
+	static final int DISCARD_PORT = 9;
+	static final int DEFAULT_RATE = 2000;
+
+	// Wider subnets are narrowed down to the block of this size that
+	// contains our own address. Each address probed takes a neighbour
+	// entry, even if nobody answers, and gc_thresh3 caps the table at 1024
+	// entries by default. A /22 alone would fill it, evicting the entries
+	// of real clients; a /24 stays well below.
+	static final int MIN_PREFIX = 24;
+
+	// Datagrams are sent in bursts, one every this many milliseconds.
+	private static final int BURST_INTERVAL = 10;
+
+	private SubnetSweeper() {
+	}
+
+	// sweep sends a datagram to every host in addr/prefixLen but addr
+	// itself, sending at most rate per second. addr is packed like in
+	// Addresses. Returns the number of datagrams sent.
+	static int sweep(int addr, int prefixLen, int rate) throws IOException, InterruptedException {
+		if (prefixLen < MIN_PREFIX) {
+			prefixLen = MIN_PREFIX;
+		}
+		if (prefixLen > 30) {
+			// no room for any other host
+			return 0;
+		}
+		int hostBits = 32 - prefixLen;
+		int network = addr & (-1 << hostBits);
+		int broadcast = network | ((1 << hostBits) - 1);
+		int burst = Math.max(1, rate * BURST_INTERVAL / 1000);
+
+		byte[] ip = new byte[4];
+		DatagramPacket packet = new DatagramPacket(new byte[0], 0);
+		packet.setPort(DISCARD_PORT);
+		DatagramSocket socket = new DatagramSocket();
+		int sent = 0;
+		try {
+			long next = System.nanoTime() / 1000000;
+			for (int host = network + 1; host < broadcast; host++) {
+				if (host == addr) {
+					continue;
+				}
+				if (sent > 0 && sent % burst == 0) {
+					next += BURST_INTERVAL;
+					long wait = next - System.nanoTime() / 1000000;
+					if (wait > 0) {
+						Thread.sleep(wait);
+					}
+				}
+				ip[0] = (byte) (host >>> 24);
+				ip[1] = (byte) (host >>> 16);
+				ip[2] = (byte) (host >>> 8);
+				ip[3] = (byte) host;
+				packet.setAddress(InetAddress.getByAddress(ip));
+				try {
+					socket.send(packet);
+				} catch (IOException e) {
+					// e.g. the neighbour queue is full; the
+					// next burst will likely go through
+				}
+				sent++;
+			}
+		} finally {
+			socket.close();
+		}
+		return sent;
+	}
+}
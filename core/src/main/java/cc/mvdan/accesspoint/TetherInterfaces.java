@@ -0,0 +1,160 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// TetherInterfaces finds the network interfaces that may be serving
+// tethered clients by looking at /sys/class/net. Wireless interfaces are
+// told apart by their wireless or phy80211 entries, and USB and Bluetooth
+// tethering by the names that Android gives to those interfaces.
+final class TetherInterfaces {
+
+	static final String SYS_NET = "/sys/class/net";
+
+	static final int KIND_NONE      = 0;
+	static final int KIND_WIFI      = 1;
+	static final int KIND_USB       = 2;
+	static final int KIND_BLUETOOTH = 3;
+
+	// Names used for interfaces that only exist to host an AP, in order
+	// of preference.
+	private static final String[] AP_PREFIXES = { "ap", "swlan", "softap" };
+
+	private static final String[] USB_PREFIXES = { "rndis", "usb", "ncm" };
+	private static final String[] BLUETOOTH_PREFIXES = { "bt-pan", "bnep" };
+
+	private TetherInterfaces() {
+	}
+
+	// kind returns one of the KIND_ constants for the interface name.
+	static int kind(String sysNet, String name) {
+		File dir = new File(sysNet, name);
+		if (new File(dir, "wireless").exists() || new File(dir, "phy80211").exists()) {
+			return KIND_WIFI;
+		}
+		if (hasPrefix(name, USB_PREFIXES)) {
+			return KIND_USB;
+		}
+		if (hasPrefix(name, BLUETOOTH_PREFIXES)) {
+			return KIND_BLUETOOTH;
+		}
+		return KIND_NONE;
+	}
+
+	// scan returns the names of all the interfaces that may be serving
+	// tethered clients, sorted by name. Of the wireless interfaces, only
+	// apDevice and those named like an AP are included, so that the
+	// station interface and Wi-Fi Direct ones such as p2p0 are left out.
+	static List<String> scan(String sysNet, String apDevice) {
+		List<String> result = new ArrayList<>();
+		String[] names = new File(sysNet).list();
+		if (names == null) {
+			return result;
+		}
+		Arrays.sort(names);
+		for (String name : names) {
+			switch (kind(sysNet, name)) {
+			case KIND_NONE:
+				break;
+			case KIND_WIFI:
+				if (name.equals(apDevice) || isApName(name)) {
+					result.add(name);
+				}
+				break;
+			default:
+				result.add(name);
+			}
+		}
+		return result;
+	}
+
+	// guessApDevice returns the wireless interface that is most likely to
+	// be hosting the AP going by its name, or null if none looks like it.
+	static String guessApDevice(String sysNet) {
+		String[] names = new File(sysNet).list();
+		if (names == null) {
+			return null;
+		}
+		Arrays.sort(names);
+		for (String prefix : AP_PREFIXES) {
+			for (String name : names) {
+				if (isApName(name, prefix) && kind(sysNet, name) == KIND_WIFI) {
+					return name;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static boolean isApName(String name) {
+		for (String prefix : AP_PREFIXES) {
+			if (isApName(name, prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isApName(String name, String prefix) {
+		return name.startsWith(prefix) && isDigits(name, prefix.length());
+	}
+
+	// ifindex returns the kernel index of the interface.
+	static int ifindex(String sysNet, String device) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(new File(new File(sysNet, device), "ifindex")));
+		try {
+			String line = br.readLine();
+			if (line == null) {
+				throw new IOException("empty ifindex for " + device);
+			}
+			return Integer.parseInt(line.trim());
+		} catch (NumberFormatException e) {
+			throw new IOException("bad ifindex for " + device);
+		} finally {
+			br.close();
+		}
+	}
+
+	private static boolean hasPrefix(String name, String[] prefixes) {
+		for (String prefix : prefixes) {
+			if (name.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isDigits(String s, int from) {
+		if (from == s.length()) {
+			return false;
+		}
+		for (int i = from; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AddressesTest {
+
+	@Test
+	public void parseIpv4() {
+		assertEquals(0xc0a82b01L, Addresses.parseIpv4("192.168.43.1"));
+		assertEquals(0L, Addresses.parseIpv4("0.0.0.0"));
+		assertEquals(0xffffffffL, Addresses.parseIpv4("255.255.255.255"));
+		assertEquals(-1L, Addresses.parseIpv4("256.0.0.1"));
+		assertEquals(-1L, Addresses.parseIpv4("1.2.3"));
+		assertEquals(-1L, Addresses.parseIpv4("1.2.3.4.5"));
+		assertEquals(-1L, Addresses.parseIpv4(""));
+	}
+
+	@Test
+	public void parseMac() {
+		assertEquals(0xaabbccddeeffL, Addresses.parseMac("aa:bb:cc:dd:ee:ff"));
+		assertEquals(0xaabbccddeeffL, Addresses.parseMac("AA:BB:CC:DD:EE:FF"));
+		assertEquals(-1L, Addresses.parseMac("aa:bb:cc:dd:ee"));
+		assertEquals(0xaabbccddeeffL, Addresses.parseMac("aa-bb-cc-dd-ee-ff"));
+		assertEquals(-1L, Addresses.parseMac("gg:bb:cc:dd:ee:ff"));
+	}
+
+	@Test
+	public void format() {
+		assertEquals("192.168.43.1", Addresses.formatIpv4(0xc0a82b01));
+		assertEquals("aa:bb:cc:dd:ee:ff", Addresses.formatMac(0xaabbccddeeffL));
+		assertEquals("00:00:00:00:00:01", Addresses.formatMac(1));
+	}
+}
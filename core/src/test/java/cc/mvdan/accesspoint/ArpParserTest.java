@@ -0,0 +1,117 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArpParserTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private static final String HEADER =
+			"IP address       HW type     Flags       HW address            Mask     Device\n";
+
+	static File write(File f, String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(f);
+		try {
+			out.write(content.getBytes("US-ASCII"));
+		} finally {
+			out.close();
+		}
+		return f;
+	}
+
+	// Collector records the visited rows as text, to compare them easily.
+	static final class Collector implements ArpParser.Visitor {
+
+		final List<String> rows = new ArrayList<>();
+
+		public void visit(int device, int ipAddr, long hwAddr, int flags) {
+			rows.add(device + " " + Addresses.formatIpv4(ipAddr) + " "
+					+ Addresses.formatMac(hwAddr) + " " + flags);
+		}
+	}
+
+	@Test
+	public void parse() throws IOException {
+		File f = write(tmp.newFile("arp"), HEADER
+				+ "192.168.43.12    0x1         0x2         aa:bb:cc:dd:ee:ff     *        wlan0\n"
+				+ "192.168.43.13    0x1         0x0         00:00:00:00:00:00     *        wlan0\n"
+				+ "192.168.42.2     0x1         0x2         11:22:33:44:55:66     *        rndis0\n"
+				+ "10.0.0.1         0x1         0x6         66:55:44:33:22:11     *        wlan0\n"
+				+ "garbage\n"
+				+ "\n");
+		ArpParser p = new ArpParser(f.getPath(), "wlan0");
+		try {
+			Collector c = new Collector();
+			assertEquals(3, p.parse(c));
+			assertEquals(5, p.lastRows());
+			assertEquals("0 192.168.43.12 aa:bb:cc:dd:ee:ff 2", c.rows.get(0));
+			assertEquals("0 192.168.43.13 00:00:00:00:00:00 0", c.rows.get(1));
+			assertEquals("0 10.0.0.1 66:55:44:33:22:11 6", c.rows.get(2));
+		} finally {
+			p.close();
+		}
+	}
+
+	@Test
+	public void parseDevices() throws IOException {
+		File f = write(tmp.newFile("arp"), HEADER
+				+ "192.168.43.12    0x1         0x2         aa:bb:cc:dd:ee:ff     *        wlan0\n"
+				+ "192.168.42.2     0x1         0x2         11:22:33:44:55:66     *        rndis0\n"
+				+ "192.168.44.2     0x1         0x2         11:22:33:44:55:77     *        bt-pan\n");
+		ArpParser p = new ArpParser(f.getPath(), "rndis0", "wlan0");
+		try {
+			Collector c = new Collector();
+			assertEquals(2, p.parse(c));
+			assertEquals("1 192.168.43.12 aa:bb:cc:dd:ee:ff 2", c.rows.get(0));
+			assertEquals("0 192.168.42.2 11:22:33:44:55:66 2", c.rows.get(1));
+		} finally {
+			p.close();
+		}
+	}
+
+	@Test
+	public void rereadsAfterChange() throws IOException {
+		File f = write(tmp.newFile("arp"), HEADER);
+		ArpParser p = new ArpParser(f.getPath(), "wlan0");
+		try {
+			assertEquals(0, p.parse(new Collector()));
+			StringBuilder sb = new StringBuilder(HEADER);
+			for (int i = 1; i <= 200; i++) {
+				// enough to grow the buffer
+				sb.append("192.168.43.").append(i)
+					.append("    0x1         0x2         aa:bb:cc:dd:ee:ff     *        wlan0\n");
+			}
+			write(f, sb.toString());
+			assertEquals(200, p.parse(new Collector()));
+		} finally {
+			p.close();
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ConntrackParserTest {
+
+	// fixture returns the path of a table under src/test/resources.
+	static String fixture(String name) {
+		try {
+			return new File(ConntrackParserTest.class.getResource(name).toURI()).getPath();
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// Collector records the visited flows as text, to compare them easily.
+	static final class Collector implements ConntrackParser.Visitor {
+
+		final List<String> flows = new ArrayList<>();
+
+		public void visit(int proto, int srcAddr, int dstAddr, int srcPort, int dstPort,
+				long origPackets, long origBytes, long replyPackets, long replyBytes) {
+			flows.add(proto + " " + Addresses.formatIpv4(srcAddr) + ":" + srcPort
+					+ " " + Addresses.formatIpv4(dstAddr) + ":" + dstPort
+					+ " " + origPackets + "/" + origBytes
+					+ " " + replyPackets + "/" + replyBytes);
+		}
+	}
+
+	@Test
+	public void nfConntrack() throws IOException {
+		ConntrackParser p = new ConntrackParser(fixture("nf_conntrack-1"));
+		try {
+			Collector c = new Collector();
+			assertEquals(7, p.parse(c));
+			assertEquals(Arrays.asList(
+					"6 192.168.43.12:5000 1.2.3.4:443 10/1000 80/90000",
+					"17 192.168.43.12:6000 8.8.8.8:53 1/60 1/120",
+					"1 192.168.43.12:42 1.1.1.1:0 3/252 3/252",
+					"6 192.168.43.13:7000 5.6.7.8:80 5/500 4/4000",
+					"17 192.168.43.13:7001 9.9.9.9:443 50/5000 50/5000",
+					"6 10.0.0.2:5000 1.2.3.4:443 99/9900 99/9900"), c.flows);
+
+			// a second pass reads the table again
+			c = new Collector();
+			assertEquals(7, p.parse(c));
+			assertEquals(6, c.flows.size());
+		} finally {
+			p.close();
+		}
+	}
+
+	@Test
+	public void ipConntrack() throws IOException {
+		ConntrackParser p = new ConntrackParser(fixture("ip_conntrack"));
+		try {
+			Collector c = new Collector();
+			assertEquals(2, p.parse(c));
+			assertEquals(Arrays.asList(
+					"6 192.168.43.12:5000 1.2.3.4:443 10/1000 8/900",
+					// accounting disabled
+					"17 192.168.43.13:6000 8.8.4.4:53 0/0 0/0"), c.flows);
+		} finally {
+			p.close();
+		}
+	}
+
+	@Test
+	public void longLines() throws IOException {
+		// lines longer than the buffer are skipped whole
+		ConntrackParser p = new ConntrackParser(fixture("nf_conntrack-1"), 200);
+		try {
+			Collector c = new Collector();
+			assertEquals(7, p.parse(c));
+			assertEquals(Arrays.asList(
+					"17 192.168.43.12:6000 8.8.8.8:53 1/60 1/120",
+					"1 192.168.43.12:42 1.1.1.1:0 3/252 3/252",
+					"17 192.168.43.13:7001 9.9.9.9:443 50/5000 50/5000",
+					"6 10.0.0.2:5000 1.2.3.4:443 99/9900 99/9900"), c.flows);
+		} finally {
+			p.close();
+		}
+	}
+}
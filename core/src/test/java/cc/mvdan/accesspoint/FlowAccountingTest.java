@@ -0,0 +1,120 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class FlowAccountingTest {
+
+	private static final int A = (int) Addresses.parseIpv4("192.168.43.12");
+	private static final int B = (int) Addresses.parseIpv4("192.168.43.13");
+	private static final int C = (int) Addresses.parseIpv4("192.168.43.14");
+
+	private static final int[] CLIENTS = { A, B, C, A };
+
+	private static ConntrackParser parser(String name) {
+		return new ConntrackParser(ConntrackParserTest.fixture(name));
+	}
+
+	private static String totals(FlowAccounting.Counters c) {
+		return c.flows + " " + c.txPackets + "/" + c.txBytes + " " + c.rxPackets + "/" + c.rxBytes;
+	}
+
+	private static String deltas(FlowAccounting.Counters c) {
+		return c.txPacketsDelta + "/" + c.txBytesDelta + " " + c.rxPacketsDelta + "/" + c.rxBytesDelta;
+	}
+
+	@Test
+	public void growth() throws IOException {
+		FlowAccounting fa = new FlowAccounting();
+		fa.update(parser("nf_conntrack-1"), CLIENTS, 2);
+		FlowAccounting.Counters a = fa.get(A);
+		assertFalse(a.known);
+		assertEquals("3 14/1312 84/90372", totals(a));
+		assertEquals("0/0 0/0", deltas(a));
+		assertEquals("2 55/5500 54/9000", totals(fa.get(B)));
+		assertNull(fa.get(C));
+		// only the flows of the clients are kept
+		assertEquals(5, fa.flowCount());
+
+		fa.update(parser("nf_conntrack-2"), CLIENTS, 4);
+		a = fa.get(A);
+		assertTrue(a.known);
+		// The large flow expired, which drops the totals, but the
+		// growth of the others and the new flow still count.
+		assertEquals("3 10/832 8/812", totals(a));
+		assertEquals("6/520 4/440", deltas(a));
+		// The udp tuple was reused by a new flow with lower counters,
+		// which counts in full.
+		FlowAccounting.Counters b = fa.get(B);
+		assertEquals("2 9/800 7/6050", totals(b));
+		assertEquals("4/300 3/2050", deltas(b));
+		// new client
+		FlowAccounting.Counters c = fa.get(C);
+		assertFalse(c.known);
+		assertEquals("1 9/900 9/900", totals(c));
+		assertEquals("0/0 0/0", deltas(c));
+		assertEquals(6, fa.flowCount());
+
+		// nothing moved
+		fa.update(parser("nf_conntrack-2"), CLIENTS, 3);
+		assertEquals("0/0 0/0", deltas(fa.get(A)));
+		assertEquals("0/0 0/0", deltas(fa.get(B)));
+		assertTrue(fa.get(C).known);
+	}
+
+	@Test
+	public void dropsClients() throws IOException {
+		FlowAccounting fa = new FlowAccounting();
+		fa.update(parser("nf_conntrack-1"), CLIENTS, 2);
+		fa.update(parser("nf_conntrack-1"), new int[] { B }, 1);
+		assertNull(fa.get(A));
+		assertEquals(2, fa.flowCount());
+
+		// A is new again, so its flows are only a baseline
+		fa.update(parser("nf_conntrack-2"), CLIENTS, 2);
+		assertFalse(fa.get(A).known);
+		assertEquals("0/0 0/0", deltas(fa.get(A)));
+		assertEquals("4/300 3/2050", deltas(fa.get(B)));
+	}
+
+	@Test
+	public void readError() throws IOException {
+		FlowAccounting fa = new FlowAccounting();
+		fa.update(parser("nf_conntrack-1"), CLIENTS, 2);
+		try {
+			fa.update(new ConntrackParser("/nonexistent/nf_conntrack"), CLIENTS, 2);
+			fail("expected an IOException");
+		} catch (IOException e) {
+			// expected
+		}
+		assertNull(fa.get(A));
+
+		// starts over as if all clients were new
+		fa.update(parser("nf_conntrack-2"), CLIENTS, 2);
+		assertFalse(fa.get(A).known);
+		assertEquals("0/0 0/0", deltas(fa.get(A)));
+	}
+}
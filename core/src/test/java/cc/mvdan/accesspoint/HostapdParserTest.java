@@ -0,0 +1,50 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HostapdParserTest {
+
+	@Test
+	public void events() {
+		String msg = "<3>AP-STA-CONNECTED 02:00:00:00:00:01";
+		assertTrue(HostapdParser.isEvent(msg));
+		assertEquals(HostapdParser.EVENT_CONNECTED, HostapdParser.eventType(msg));
+		assertEquals(0x020000000001L, HostapdParser.eventStation(msg));
+
+		msg = "<3>AP-STA-DISCONNECTED 02:00:00:00:00:02 reason=3";
+		assertEquals(HostapdParser.EVENT_DISCONNECTED, HostapdParser.eventType(msg));
+		assertEquals(0x020000000002L, HostapdParser.eventStation(msg));
+
+		msg = "<3>CTRL-EVENT-EAP-STARTED 02:00:00:00:00:01";
+		assertEquals(HostapdParser.EVENT_OTHER, HostapdParser.eventType(msg));
+		assertEquals(-1L, HostapdParser.eventStation(msg));
+	}
+
+	@Test
+	public void replies() {
+		assertFalse(HostapdParser.isEvent("OK\n"));
+		assertEquals(0x020000000001L, HostapdParser.staReply("02:00:00:00:00:01\nflags=[AUTH][ASSOC]\n"));
+		assertEquals(-1L, HostapdParser.staReply(""));
+		assertEquals(-1L, HostapdParser.staReply("FAIL\n"));
+	}
+}
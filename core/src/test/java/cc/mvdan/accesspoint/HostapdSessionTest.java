@@ -0,0 +1,246 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HostapdSessionTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private static final String STA1 = "02:00:00:00:00:01";
+	private static final String STA2 = "02:00:00:00:00:02";
+	private static final String STA3 = "02:00:00:00:00:03";
+
+	// EXIT is compared by identity, as hostapd may send empty replies.
+	private static final String EXIT = new String("exit");
+
+	// FakeHostapd answers the control protocol in memory, for the sockets
+	// whose paths it was given.
+	private static final class FakeHostapd implements HostapdSession.Opener {
+
+		final Set<String> paths = new HashSet<>();
+		final List<String> stations = new ArrayList<>();
+		final List<FakeTransport> attached = new ArrayList<>();
+
+		FakeHostapd(String... paths) {
+			this.paths.addAll(Arrays.asList(paths));
+		}
+
+		public HostapdSession.Transport open(String path) throws IOException {
+			if (!paths.contains(path)) {
+				throw new IOException("connection refused: " + path);
+			}
+			return new FakeTransport(this);
+		}
+
+		synchronized String reply(FakeTransport t, String cmd) {
+			if (cmd.equals("PING")) {
+				return "PONG\n";
+			}
+			if (cmd.equals("ATTACH")) {
+				attached.add(t);
+				return "OK\n";
+			}
+			if (cmd.equals("DETACH")) {
+				attached.remove(t);
+				return "OK\n";
+			}
+			int next;
+			if (cmd.equals("STA-FIRST")) {
+				next = 0;
+			} else if (cmd.startsWith("STA-NEXT ")) {
+				int prev = stations.indexOf(cmd.substring(9));
+				next = prev < 0 ? stations.size() : prev + 1;
+			} else {
+				return "UNKNOWN COMMAND\n";
+			}
+			if (next >= stations.size()) {
+				// the end of the list
+				return "";
+			}
+			return stations.get(next) + "\nflags=[AUTH][ASSOC][AUTHORIZED]\n";
+		}
+
+		synchronized void event(String msg) {
+			for (FakeTransport t : attached) {
+				t.inbox.add("<3>" + msg);
+			}
+		}
+
+		// exit makes every attached transport fail, like hostapd
+		// going away does.
+		synchronized void exit() {
+			for (FakeTransport t : attached) {
+				t.inbox.add(EXIT);
+			}
+			attached.clear();
+		}
+	}
+
+	private static final class FakeTransport implements HostapdSession.Transport {
+
+		final FakeHostapd hostapd;
+		final LinkedBlockingQueue<String> inbox = new LinkedBlockingQueue<>();
+		boolean closed;
+
+		FakeTransport(FakeHostapd hostapd) {
+			this.hostapd = hostapd;
+		}
+
+		public void send(String msg) throws IOException {
+			if (closed) {
+				throw new IOException("closed");
+			}
+			inbox.add(hostapd.reply(this, msg));
+		}
+
+		public String receive(int timeout) throws IOException {
+			String msg;
+			try {
+				msg = timeout == 0 ? inbox.take() : inbox.poll(timeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				throw new IOException("interrupted");
+			}
+			if (msg == null) {
+				throw new SocketTimeoutException();
+			}
+			if (msg == EXIT) {
+				throw new EOFException();
+			}
+			return msg;
+		}
+
+		public void close() {
+			closed = true;
+		}
+	}
+
+	private static final class Recorder implements HostapdSession.Listener {
+
+		final List<String> events = new ArrayList<>();
+
+		public void onStation(String hwAddr, boolean connected) {
+			events.add((connected ? "+" : "-") + hwAddr);
+		}
+	}
+
+	@Test
+	public void attach() throws IOException {
+		FakeHostapd fake = new FakeHostapd("wlan0");
+		fake.stations.add(STA1);
+		fake.stations.add(STA2);
+		HostapdSession s = HostapdSession.open(fake, "wlan0");
+		assertEquals(1, fake.attached.size());
+		assertEquals(new HashSet<>(Arrays.asList(STA1, STA2)), new HashSet<>(s.getStations()));
+		assertTrue(s.isConnected(0x020000000001L));
+		assertFalse(s.isConnected(0x020000000003L));
+	}
+
+	@Test
+	public void events() throws IOException {
+		FakeHostapd fake = new FakeHostapd("wlan0");
+		fake.stations.add(STA1);
+		HostapdSession s = HostapdSession.open(fake, "wlan0");
+		Recorder rec = new Recorder();
+		// already in the initial list
+		fake.event("AP-STA-CONNECTED " + STA1);
+		s.next(rec);
+		fake.event("AP-STA-CONNECTED " + STA3);
+		s.next(rec);
+		fake.event("CTRL-EVENT-EAP-STARTED " + STA3);
+		s.next(rec);
+		fake.event("AP-STA-DISCONNECTED " + STA1);
+		s.next(rec);
+		// not known
+		fake.event("AP-STA-DISCONNECTED " + STA2);
+		s.next(rec);
+		assertEquals(Arrays.asList("+" + STA3, "-" + STA1), rec.events);
+		assertEquals(Arrays.asList(STA3), s.getStations());
+	}
+
+	@Test
+	public void requestSkipsEvents() throws IOException {
+		FakeHostapd fake = new FakeHostapd("wlan0");
+		FakeTransport t = (FakeTransport) fake.open("wlan0");
+		t.inbox.add("<3>AP-STA-CONNECTED " + STA1);
+		assertEquals("PONG\n", HostapdSession.request(t, "PING", 100));
+	}
+
+	@Test
+	public void exit() throws IOException {
+		FakeHostapd fake = new FakeHostapd("wlan0");
+		HostapdSession s = HostapdSession.open(fake, "wlan0");
+		fake.exit();
+		try {
+			s.next(new Recorder());
+			fail("expected an exception once hostapd exits");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void detach() throws IOException {
+		FakeHostapd fake = new FakeHostapd("wlan0");
+		HostapdSession s = HostapdSession.open(fake, "wlan0");
+		s.detach();
+		// the reply to DETACH wakes up next, which ignores it
+		s.next(new Recorder());
+		assertEquals(0, fake.attached.size());
+	}
+
+	@Test
+	public void findSocket() throws IOException {
+		File dir = tmp.newFolder("hostapd");
+		String[] dirs = { new File(tmp.getRoot(), "missing").getPath(), dir.getPath() };
+		String wlan0 = new File(dir, "wlan0").getPath();
+		String ap0 = new File(dir, "ap0").getPath();
+		String p2p0 = new File(dir, "p2p0").getPath();
+		String stale = new File(dir, "aa0").getPath();
+		for (String path : new String[] { wlan0, ap0, p2p0, stale }) {
+			assertTrue(new File(path).createNewFile());
+		}
+
+		// the socket of the device wins
+		assertEquals(wlan0, HostapdSession.findSocket(dirs, "wlan0", new FakeHostapd(wlan0, ap0)));
+		// otherwise, the first that answers, skipping P2P
+		assertEquals(ap0, HostapdSession.findSocket(dirs, "wlan0", new FakeHostapd(p2p0, ap0)));
+		assertNull(HostapdSession.findSocket(dirs, "wlan0", new FakeHostapd(p2p0)));
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+import org.junit.Test;
+
+public class InterfaceCacheTest {
+
+	@Test
+	public void cached() throws IOException {
+		InterfaceCache c = new InterfaceCache("lo");
+		InetAddress[] first = c.get();
+		assumeTrue(first.length > 0);
+		assertSame(first, c.get());
+		c.invalidate();
+		assertNotSame(first, c.get());
+	}
+
+	@Test
+	public void expires() throws IOException {
+		InterfaceCache c = new InterfaceCache("lo", 0);
+		InetAddress[] first = c.get();
+		assumeTrue(first.length > 0);
+		assertNotSame(first, c.get());
+	}
+
+	@Test
+	public void missing() throws IOException {
+		InterfaceCache c = new InterfaceCache("nosuchiface0");
+		assertEquals(0, c.get().length);
+		assertNull(c.first(InetAddress.class));
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LeaseIndexTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void reload() throws IOException {
+		File f = ArpParserTest.write(tmp.newFile("leases"),
+				"1445523331 aa:bb:cc:dd:ee:ff 192.168.43.12 android-1 01:aa:bb:cc:dd:ee:ff\n"
+				+ "0 11:22:33:44:55:66 192.168.43.13 * *\n"
+				+ "1445523331 1234 fd00::2 host6 00:01\n");
+		LeaseIndex idx = new LeaseIndex(new File(tmp.getRoot(), "missing").getPath(), f.getPath());
+		assertTrue(idx.reload());
+		assertEquals(2, idx.size());
+
+		LeaseIndex.Lease l = idx.get(0xaabbccddeeffL);
+		assertEquals("android-1", l.hostname);
+		assertEquals("01:aa:bb:cc:dd:ee:ff", l.clientId);
+		assertEquals(1445523331000L, l.expiry);
+		assertEquals(0xc0a82b0c, l.ipAddr);
+
+		l = idx.get(0x112233445566L);
+		assertNull(l.hostname);
+		assertNull(l.clientId);
+		assertEquals(Long.MAX_VALUE, l.expiry);
+	}
+
+	@Test
+	public void sameSizeRewrite() throws IOException {
+		String a = "0 aa:bb:cc:dd:ee:ff 192.168.43.12 android-1 *\n";
+		String b = "0 aa:bb:cc:dd:ee:ff 192.168.43.13 android-1 *\n";
+		File f = ArpParserTest.write(tmp.newFile("leases"), a);
+		long m = f.lastModified();
+		LeaseIndex idx = new LeaseIndex(f.getPath());
+		assertTrue(idx.reload());
+
+		// Rewritten within the same mtime tick; it must not look
+		// unchanged, since the first read was too close to the mtime.
+		ArpParserTest.write(f, b);
+		assertTrue(f.setLastModified(m));
+		assertTrue(idx.reload());
+		assertEquals(0xc0a82b0d, idx.get(0xaabbccddeeffL).ipAddr);
+
+		// Once read well after its mtime, an unchanged file is not read
+		// again.
+		assertTrue(f.setLastModified(System.currentTimeMillis() - 10000));
+		assertTrue(idx.reload());
+		assertFalse(idx.reload());
+	}
+
+	@Test
+	public void missingFile() throws IOException {
+		LeaseIndex idx = new LeaseIndex(new File(tmp.getRoot(), "missing").getPath());
+		assertFalse(idx.reload());
+		assertEquals(0, idx.size());
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongTableTest {
+
+	@Test
+	public void fuzz() {
+		Random rnd = new Random(1);
+		LongTable<Long> table = new LongTable<>();
+		Map<Long, Long> want = new HashMap<>();
+		for (int i = 0; i < 200000; i++) {
+			// a small key space, so that keys come back often
+			long key = 0x020000000000L + rnd.nextInt(512);
+			long value = rnd.nextLong();
+			switch (rnd.nextInt(3)) {
+			case 0:
+				assertEquals(want.put(key, value), table.put(key, value));
+				break;
+			case 1:
+				assertEquals(want.remove(key), table.remove(key));
+				break;
+			default:
+				assertEquals(want.get(key), table.get(key));
+			}
+			assertEquals(want.size(), table.size());
+		}
+		check(table, want);
+	}
+
+	// wrapAround fills the last slots of the table with keys that all have
+	// the same home slot, so that their probe run wraps around to slot 0,
+	// and then removes them one at a time.
+	@Test
+	public void wrapAround() {
+		LongTable<Long> table = new LongTable<>();
+		int mask = table.capacity() - 1;
+		long[] keys = new long[6];
+		int n = 0;
+		for (long key = 1; n < keys.length; key++) {
+			if (LongTable.slot(key, mask) == mask - 1) {
+				keys[n++] = key;
+			}
+		}
+		for (int order = 0; order < keys.length; order++) {
+			Map<Long, Long> want = new HashMap<>();
+			for (long key : keys) {
+				table.put(key, key);
+				want.put(key, key);
+			}
+			assertEquals(mask + 1, table.capacity());
+			// remove starting at a different point each time
+			for (int i = 0; i < keys.length; i++) {
+				long key = keys[(order + i) % keys.length];
+				assertEquals(Long.valueOf(key), table.remove(key));
+				want.remove(key);
+				assertNull(table.get(key));
+				check(table, want);
+			}
+		}
+	}
+
+	@Test
+	public void grow() {
+		LongTable<Long> table = new LongTable<>();
+		Map<Long, Long> want = new HashMap<>();
+		for (long key = 0; key < 1000; key++) {
+			table.put(key * 0x1000, key);
+			want.put(key * 0x1000, key);
+		}
+		check(table, want);
+		table.clear();
+		assertEquals(0, table.size());
+		assertNull(table.get(0));
+	}
+
+	private static void check(LongTable<Long> table, Map<Long, Long> want) {
+		assertEquals(want.size(), table.size());
+		int seen = 0;
+		for (int i = 0; i < table.capacity(); i++) {
+			Long v = table.valueAt(i);
+			if (v == null) {
+				continue;
+			}
+			seen++;
+			assertEquals(want.get(table.keyAt(i)), v);
+		}
+		assertEquals(want.size(), seen);
+		for (Map.Entry<Long, Long> e : want.entrySet()) {
+			assertEquals(e.getValue(), table.get(e.getKey()));
+		}
+	}
+}
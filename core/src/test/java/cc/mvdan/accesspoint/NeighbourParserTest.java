@@ -0,0 +1,147 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class NeighbourParserTest {
+
+	private final byte[] buf = new byte[8192];
+
+	@Before
+	public void setUp() {
+		// the fixtures were captured on a little-endian machine
+		assumeTrue(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN);
+	}
+
+	// load reads a hex fixture into buf, returning its length. Lines
+	// starting with # are comments.
+	private int load(String name) throws IOException {
+		BufferedReader br = new BufferedReader(new InputStreamReader(
+				getClass().getResourceAsStream(name), "US-ASCII"));
+		try {
+			int len = 0;
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith("#")) {
+					continue;
+				}
+				for (String b : line.trim().split(" +")) {
+					if (!b.isEmpty()) {
+						buf[len++] = (byte) Integer.parseInt(b, 16);
+					}
+				}
+			}
+			return len;
+		} finally {
+			br.close();
+		}
+	}
+
+	// Collector records the visited entries as text, to compare them
+	// easily.
+	static final class Collector implements NeighbourParser.Visitor {
+
+		final List<String> entries = new ArrayList<>();
+
+		public void visit(int ifindex, int family, byte[] addr, int addrOff, int addrLen, long hwAddr,
+				int nudState, long confirmedAgo, long usedAgo) {
+			String ip;
+			try {
+				ip = InetAddress.getByAddress(Arrays.copyOfRange(addr, addrOff, addrOff + addrLen))
+						.getHostAddress();
+			} catch (IOException e) {
+				throw new AssertionError(e);
+			}
+			entries.add(ifindex + " " + family + " " + ip + " "
+					+ (hwAddr < 0 ? "-" : Addresses.formatMac(hwAddr))
+					+ " " + nudState + " " + confirmedAgo + " " + usedAgo);
+		}
+	}
+
+	@Test
+	public void multiMessageDump() throws IOException {
+		NeighbourParser p = new NeighbourParser(buf, 0);
+		Collector c = new Collector();
+		assertFalse(p.parse(load("neigh-dump-1.hex"), c));
+		assertTrue(p.parse(load("neigh-dump-2.hex"), c));
+		assertEquals(Arrays.asList(
+				"5 2 192.168.43.12 aa:bb:cc:dd:ee:ff 2 1500 200",
+				"2 2 10.0.0.1 11:22:33:44:55:66 4 50000 50000",
+				"5 10 fe80:0:0:0:a8bb:ccff:fedd:eeff aa:bb:cc:dd:ee:ff 4 30000 1000",
+				"5 2 192.168.43.13 - 1 0 0",
+				"5 2 192.168.43.1 02:00:00:00:00:01 128 -1 -1"), c.entries);
+	}
+
+	@Test
+	public void ifindexFilter() throws IOException {
+		NeighbourParser p = new NeighbourParser(buf, 2);
+		Collector c = new Collector();
+		assertFalse(p.parse(load("neigh-dump-1.hex"), c));
+		assertEquals(Arrays.asList("2 2 10.0.0.1 11:22:33:44:55:66 4 50000 50000"), c.entries);
+	}
+
+	@Test
+	public void error() throws IOException {
+		NeighbourParser p = new NeighbourParser(buf, 0);
+		try {
+			p.parse(load("neigh-error.hex"), new Collector());
+			fail("expected an IOException");
+		} catch (IOException e) {
+			assertEquals("netlink error, errno 13", e.getMessage());
+		}
+	}
+
+	@Test
+	public void truncatedAttribute() throws IOException {
+		NeighbourParser p = new NeighbourParser(buf, 0);
+		Collector c = new Collector();
+		assertFalse(p.parse(load("neigh-truncated.hex"), c));
+		// the attributes before the bad one still count
+		assertEquals(Arrays.asList("5 2 192.168.43.14 - 2 -1 -1"), c.entries);
+	}
+
+	@Test
+	public void truncatedMessage() throws IOException {
+		NeighbourParser p = new NeighbourParser(buf, 0);
+		int len = load("neigh-dump-1.hex");
+		Collector c = new Collector();
+		try {
+			p.parse(len - 8, c);
+			fail("expected an IOException");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(3, c.entries.size());
+	}
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NioProberTest {
+
+	private static final int TIMEOUT = 500;
+
+	// udp never answers, so that results only come from TCP.
+	private DatagramSocket udp;
+	private ServerSocket listener;
+	private NioProber prober;
+
+	@Before
+	public void setUp() throws IOException {
+		udp = new DatagramSocket(0, InetAddress.getByName("0.0.0.0"));
+		listener = new ServerSocket();
+		listener.bind(new InetSocketAddress("0.0.0.0", 0), 1000);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (prober != null) {
+			prober.close();
+		}
+		listener.close();
+		udp.close();
+	}
+
+	private static final class Result implements Prober.Callback {
+
+		final CountDownLatch done;
+		final AtomicInteger reachable = new AtomicInteger();
+
+		Result(int count) {
+			done = new CountDownLatch(count);
+		}
+
+		public void onProbeResult(boolean reachable, long rtt) {
+			if (reachable) {
+				this.reachable.incrementAndGet();
+			}
+			done.countDown();
+		}
+
+		int await() throws InterruptedException {
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+			return reachable.get();
+		}
+	}
+
+	@Test
+	public void accepted() throws InterruptedException {
+		prober = new NioProber(new int[] { listener.getLocalPort() }, udp.getLocalPort());
+		Result r = new Result(1);
+		prober.probe("127.0.0.1", TIMEOUT, r);
+		assertEquals(1, r.await());
+	}
+
+	@Test
+	public void refused() throws IOException, InterruptedException {
+		ServerSocket s = new ServerSocket(0);
+		int port = s.getLocalPort();
+		s.close();
+		prober = new NioProber(new int[] { port }, udp.getLocalPort());
+		Result r = new Result(1);
+		prober.probe("127.0.0.1", TIMEOUT, r);
+		assertEquals(1, r.await());
+	}
+
+	@Test
+	public void timeout() throws InterruptedException {
+		prober = new NioProber(new int[0], udp.getLocalPort());
+		Result r = new Result(1);
+		prober.probe("127.0.0.1", TIMEOUT, r);
+		assertEquals(0, r.await());
+	}
+
+	@Test
+	public void oneThread() throws InterruptedException {
+		// Earlier tests may still be shutting theirs down.
+		awaitNoProbeThreads();
+		prober = new NioProber(new int[] { listener.getLocalPort() }, udp.getLocalPort());
+		for (int n : new int[] { 10, 100, 300 }) {
+			Result r = new Result(n);
+			for (int i = 0; i < n; i++) {
+				prober.probe("127.0.0." + (i % 250 + 1), TIMEOUT, r);
+			}
+			assertEquals(n, r.await());
+			assertEquals(1, probeThreads());
+		}
+	}
+
+	@Test
+	public void restartsAfterDeath() throws InterruptedException {
+		awaitNoProbeThreads();
+		prober = new NioProber(new int[] { listener.getLocalPort() }, udp.getLocalPort());
+		Result first = new Result(1);
+		prober.probe("127.0.0.1", TIMEOUT, first);
+		assertEquals(1, first.await());
+		// stands in for the loop dying
+		for (Thread t : Thread.getAllStackTraces().keySet()) {
+			if (t.getName().equals("WifiApControl-nio-probe")) {
+				t.interrupt();
+			}
+		}
+		// Probes queued while the old loop is dying fail, so wait
+		// for it to be gone.
+		awaitNoProbeThreads();
+		Result r = new Result(1);
+		prober.probe("127.0.0.2", TIMEOUT, r);
+		assertEquals(1, r.await());
+	}
+
+	@Test
+	public void throwingCallback() throws InterruptedException {
+		awaitNoProbeThreads();
+		prober = new NioProber(new int[] { listener.getLocalPort() }, udp.getLocalPort());
+		final CountDownLatch thrown = new CountDownLatch(1);
+		Result r = new Result(2);
+		// Both share the probe of the same IP; the one that throws is
+		// called first.
+		synchronized (prober) {
+			prober.probe("127.0.0.1", TIMEOUT, new Prober.Callback() {
+				public void onProbeResult(boolean reachable, long rtt) {
+					thrown.countDown();
+					throw new IllegalStateException("callback bug");
+				}
+			});
+			prober.probe("127.0.0.1", TIMEOUT, r);
+		}
+		prober.probe("127.0.0.2", TIMEOUT, r);
+		assertTrue(thrown.await(5, TimeUnit.SECONDS));
+		assertEquals(2, r.await());
+
+		// later probes of the same IP still get their result, from
+		// the same loop
+		Result later = new Result(1);
+		prober.probe("127.0.0.1", TIMEOUT, later);
+		assertEquals(1, later.await());
+		assertEquals(1, probeThreads());
+	}
+
+	private static void awaitNoProbeThreads() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (probeThreads() != 0) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private static int probeThreads() {
+		int n = 0;
+		for (Thread t : Thread.getAllStackTraces().keySet()) {
+			if (t.isAlive() && t.getName().equals("WifiApControl-nio-probe")) {
+				n++;
+			}
+		}
+		return n;
+	}
+}
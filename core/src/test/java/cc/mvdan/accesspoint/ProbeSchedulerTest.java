@@ -0,0 +1,134 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ProbeSchedulerTest {
+
+	// BlockingCheck counts the checks of each address, and blocks them
+	// all until release is counted down.
+	static final class BlockingCheck implements ProbeScheduler.Check {
+
+		final ConcurrentMap<String, AtomicInteger> runs = new ConcurrentHashMap<>();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		public boolean isReachable(String ipAddr, int timeout) {
+			runs.putIfAbsent(ipAddr, new AtomicInteger());
+			runs.get(ipAddr).incrementAndGet();
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				return false;
+			}
+			return true;
+		}
+
+		int runs(String ipAddr) {
+			AtomicInteger n = runs.get(ipAddr);
+			return n == null ? 0 : n.get();
+		}
+	}
+
+	static final class Result implements Prober.Callback {
+
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile boolean reachable;
+
+		public void onProbeResult(boolean reachable, long rtt) {
+			this.reachable = reachable;
+			done.countDown();
+		}
+
+		boolean await() throws InterruptedException {
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+			return reachable;
+		}
+	}
+
+	private ProbeScheduler scheduler;
+
+	@After
+	public void tearDown() {
+		if (scheduler != null) {
+			scheduler.close();
+		}
+	}
+
+	@Test
+	public void dedupeRunning() throws InterruptedException {
+		BlockingCheck check = new BlockingCheck();
+		scheduler = new ProbeScheduler(2, check);
+		Result first = new Result();
+		Result second = new Result();
+		scheduler.probe("192.168.43.2", 100, first);
+		assertTrue(check.started.await(5, TimeUnit.SECONDS));
+		scheduler.probe("192.168.43.2", 100, second);
+
+		check.release.countDown();
+		assertTrue(first.await());
+		assertTrue(second.await());
+		assertEquals(1, check.runs("192.168.43.2"));
+	}
+
+	@Test
+	public void dedupeQueued() throws InterruptedException {
+		BlockingCheck check = new BlockingCheck();
+		scheduler = new ProbeScheduler(1, check);
+		Result busy = new Result();
+		scheduler.probe("192.168.43.2", 100, busy);
+		assertTrue(check.started.await(5, TimeUnit.SECONDS));
+
+		// the only thread is busy, so these two queue up
+		Result first = new Result();
+		Result second = new Result();
+		scheduler.probe("192.168.43.3", 100, first);
+		scheduler.probe("192.168.43.3", 100, second);
+
+		check.release.countDown();
+		assertTrue(busy.await());
+		assertTrue(first.await());
+		assertTrue(second.await());
+		assertEquals(1, check.runs("192.168.43.3"));
+	}
+
+	@Test
+	public void probeAgainAfterFinish() throws InterruptedException {
+		BlockingCheck check = new BlockingCheck();
+		check.release.countDown();
+		scheduler = new ProbeScheduler(1, check);
+		Result first = new Result();
+		scheduler.probe("192.168.43.2", 100, first);
+		assertTrue(first.await());
+		Result second = new Result();
+		scheduler.probe("192.168.43.2", 100, second);
+		assertTrue(second.await());
+		assertEquals(2, check.runs("192.168.43.2"));
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ReachabilityCacheTest {
+
+	static final String KEY = "00:11:22:33:44:55 192.168.43.2";
+	static final int MAX = 300;
+
+	@Test
+	public void hitWithinTtl() {
+		ReachabilityCache cache = new ReachabilityCache();
+		cache.setTtl(1000);
+		assertEquals(-1, cache.cached(KEY, 0));
+		assertTrue(cache.record(KEY, true, 20, MAX, MAX, 0));
+		assertEquals(1, cache.cached(KEY, 0));
+		assertEquals(1, cache.cached(KEY, 999));
+	}
+
+	@Test
+	public void expiry() {
+		ReachabilityCache cache = new ReachabilityCache();
+		cache.setTtl(1000);
+		cache.record(KEY, true, 20, MAX, MAX, 0);
+		assertEquals(-1, cache.cached(KEY, 1000));
+
+		// the RTT estimate outlives the cached result
+		assertEquals(60, cache.timeout(KEY, MAX));
+
+		cache.setTtl(0);
+		cache.record(KEY, true, 20, MAX, MAX, 2000);
+		assertEquals(-1, cache.cached(KEY, 2000));
+	}
+
+	@Test
+	public void negative() {
+		ReachabilityCache cache = new ReachabilityCache();
+		cache.setTtl(1000);
+
+		// timing out at the maximum is a trusted negative
+		assertTrue(cache.record(KEY, false, 0, MAX, MAX, 0));
+		assertEquals(0, cache.cached(KEY, 500));
+		assertFalse(cache.record(KEY, false, 0, MAX, MAX, 500));
+
+		// coming back is a change
+		assertTrue(cache.record(KEY, true, 20, MAX, MAX, 600));
+		assertEquals(1, cache.cached(KEY, 600));
+	}
+
+	@Test
+	public void earlyTimeoutIsNotTrusted() {
+		ReachabilityCache cache = new ReachabilityCache();
+		cache.setTtl(1000);
+		cache.record(KEY, true, 20, MAX, MAX, 0);
+		int timeout = cache.timeout(KEY, MAX);
+		assertTrue(timeout < MAX);
+
+		assertFalse(cache.record(KEY, false, 0, timeout, MAX, 10));
+		assertEquals(-1, cache.cached(KEY, 10));
+		assertEquals(timeout * 2, cache.timeout(KEY, MAX));
+	}
+
+	@Test
+	public void rttTimeout() {
+		ReachabilityCache cache = new ReachabilityCache();
+		assertEquals(MAX, cache.timeout(KEY, MAX));
+
+		// srtt 40 and rttvar 20 give 40 + 4*20
+		cache.record(KEY, true, 40, MAX, MAX, 0);
+		assertEquals(120, cache.timeout(KEY, MAX));
+		assertEquals(100, cache.timeout(KEY, 100));
+	}
+
+	@Test
+	public void prune() {
+		ReachabilityCache cache = new ReachabilityCache();
+		cache.record(KEY, true, 40, MAX, MAX, 0);
+		cache.prune(60 * 1000);
+		assertEquals(120, cache.timeout(KEY, MAX));
+		cache.prune(11 * 60 * 1000);
+		assertEquals(MAX, cache.timeout(KEY, MAX));
+	}
+
+	// Callers that miss the same key at once all end up sharing one
+	// entry, and only one of them sees the result as a change.
+	@Test
+	public void concurrentCallersCoalesce() throws InterruptedException {
+		final ReachabilityCache cache = new ReachabilityCache();
+		cache.setTtl(1000);
+		final int n = 16;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(n);
+		final AtomicInteger misses = new AtomicInteger();
+		final AtomicInteger changes = new AtomicInteger();
+		for (int i = 0; i < n; i++) {
+			Thread t = new Thread() {
+				public void run() {
+					try {
+						start.await();
+						if (cache.cached(KEY, 0) < 0) {
+							misses.incrementAndGet();
+						}
+						if (cache.record(KEY, true, 20, MAX, MAX, 0)) {
+							changes.incrementAndGet();
+						}
+					} catch (InterruptedException e) {
+						// counted as not done below
+						return;
+					}
+					done.countDown();
+				}
+			};
+			t.setDaemon(true);
+			t.start();
+		}
+		start.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertTrue(misses.get() >= 1);
+		assertEquals(1, changes.get());
+		assertEquals(1, cache.cached(KEY, 0));
+	}
+}
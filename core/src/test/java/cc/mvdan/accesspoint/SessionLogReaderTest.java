@@ -0,0 +1,117 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SessionLogReaderTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private static final long MAC = 0xaabbccddeeffL;
+	private static final int IP = 0xc0a82b0c;
+	private static final int IP2 = 0xc0a82b0d;
+
+	private File dir;
+	private ByteBuffer records;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = tmp.newFolder("log");
+		records = ByteBuffer.allocate(64 * SessionLog.RECORD_SIZE);
+	}
+
+	// add appends a record with a fixed time, as SessionLog would.
+	private void add(long time, int type, int ipAddr, int state) {
+		records.putLong(time);
+		records.putLong(type == SessionLog.EVENT_OPEN || type == SessionLog.EVENT_AP_STATE ? 0 : MAC);
+		records.putInt(ipAddr);
+		records.putInt(type);
+		records.putInt(state);
+		records.putInt(0);
+	}
+
+	private List<String> sessions(long from, long to) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(SessionLog.HEADER_SIZE);
+		header.putInt(SessionLog.MAGIC);
+		header.putInt(SessionLog.VERSION);
+		header.putInt(SessionLog.RECORD_SIZE);
+		FileOutputStream out = new FileOutputStream(SessionLog.segmentFile(dir, 0));
+		try {
+			out.write(header.array());
+			out.write(records.array(), 0, records.position());
+		} finally {
+			out.close();
+		}
+		final List<String> result = new ArrayList<>();
+		new SessionLogReader(dir).sessions(from, to, new SessionLogReader.SessionVisitor() {
+			public void visitSession(long hwAddr, int ipAddr, long start, long end) {
+				result.add(Addresses.formatIpv4(ipAddr) + " " + start + " " + end);
+			}
+		});
+		return result;
+	}
+
+	@Test
+	public void leave() throws IOException {
+		add(10, SessionLog.EVENT_OPEN, 0, 0);
+		add(100, SessionLog.EVENT_JOIN, IP, 0);
+		add(300, SessionLog.EVENT_LEAVE, IP, 0);
+		add(400, SessionLog.EVENT_JOIN, IP, 0);
+		assertEquals(Arrays.asList("192.168.43.12 100 300", "192.168.43.12 400 -1"),
+				sessions(0, 1000));
+		// the first session ended before from
+		assertEquals(Arrays.asList("192.168.43.12 400 -1"), sessions(350, 1000));
+	}
+
+	@Test
+	public void apDown() throws IOException {
+		add(10, SessionLog.EVENT_OPEN, 0, 0);
+		add(15, SessionLog.EVENT_AP_STATE, 0, SessionLog.AP_STATE_ENABLED);
+		add(100, SessionLog.EVENT_JOIN, IP, 0);
+		add(500, SessionLog.EVENT_AP_STATE, 0, 11);
+		// noticed gone after the AP went down
+		add(510, SessionLog.EVENT_LEAVE, IP, 0);
+		assertEquals(Arrays.asList("192.168.43.12 100 500"), sessions(0, 1000));
+		assertEquals(Arrays.asList("192.168.43.12 100 500"), sessions(500, 1000));
+		assertEquals(Arrays.<String>asList(), sessions(501, 1000));
+	}
+
+	@Test
+	public void restart() throws IOException {
+		add(10, SessionLog.EVENT_OPEN, 0, 0);
+		add(100, SessionLog.EVENT_JOIN, IP, 0);
+		add(200, SessionLog.EVENT_IP_CHANGE, IP2, 0);
+		// the previous run stopped at some point after 200
+		add(900, SessionLog.EVENT_OPEN, 0, 0);
+		assertEquals(Arrays.asList("192.168.43.13 100 200"), sessions(0, 1000));
+	}
+}
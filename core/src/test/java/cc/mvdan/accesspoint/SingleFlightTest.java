@@ -0,0 +1,149 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+	// BlockingTask counts its runs, and blocks the first one until
+	// release is counted down.
+	static final class BlockingTask implements SingleFlight.Task<Integer> {
+
+		final AtomicInteger runs = new AtomicInteger();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile RuntimeException error;
+
+		public Integer run() {
+			int n = runs.incrementAndGet();
+			if (n == 1) {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				if (error != null) {
+					throw error;
+				}
+			}
+			return n;
+		}
+	}
+
+	// Caller runs a single call on its own thread.
+	static final class Caller extends Thread {
+
+		final SingleFlight<Integer> flight;
+		final AtomicReference<Object> result = new AtomicReference<>();
+
+		Caller(SingleFlight<Integer> flight) {
+			this.flight = flight;
+			setDaemon(true);
+		}
+
+		public void run() {
+			try {
+				result.set(flight.call());
+			} catch (RuntimeException e) {
+				result.set(e);
+			}
+		}
+
+		Object await() throws InterruptedException {
+			join(5000);
+			if (isAlive()) {
+				fail("call did not return");
+			}
+			return result.get();
+		}
+	}
+
+	// awaitWaiting waits for t to block on the run it joined.
+	private static void awaitWaiting(Thread t) throws InterruptedException {
+		for (int i = 0; i < 500 && t.getState() != Thread.State.WAITING; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(Thread.State.WAITING, t.getState());
+	}
+
+	@Test
+	public void joins() throws InterruptedException {
+		BlockingTask task = new BlockingTask();
+		SingleFlight<Integer> f = new SingleFlight<>(task);
+		Caller leader = new Caller(f);
+		leader.start();
+		assertTrue(task.started.await(5, TimeUnit.SECONDS));
+		Caller joiner = new Caller(f);
+		joiner.start();
+		awaitWaiting(joiner);
+		task.release.countDown();
+		assertEquals(1, leader.await());
+		assertEquals(1, joiner.await());
+		assertEquals(1, task.runs.get());
+
+		// a call after the run finished starts a new one
+		assertEquals(2, (int) f.call());
+	}
+
+	@Test
+	public void invalidate() throws InterruptedException {
+		BlockingTask task = new BlockingTask();
+		SingleFlight<Integer> f = new SingleFlight<>(task);
+		Caller leader = new Caller(f);
+		leader.start();
+		assertTrue(task.started.await(5, TimeUnit.SECONDS));
+		Caller joiner = new Caller(f);
+		joiner.start();
+		awaitWaiting(joiner);
+
+		f.invalidate();
+		// doesn't join the run that started before the invalidate
+		assertEquals(2, (int) f.call());
+		task.release.countDown();
+		assertEquals(1, leader.await());
+		assertEquals(1, joiner.await());
+		assertEquals(3, (int) f.call());
+	}
+
+	@Test
+	public void error() throws InterruptedException {
+		BlockingTask task = new BlockingTask();
+		task.error = new IllegalStateException("boom");
+		SingleFlight<Integer> f = new SingleFlight<>(task);
+		Caller leader = new Caller(f);
+		leader.start();
+		assertTrue(task.started.await(5, TimeUnit.SECONDS));
+		Caller joiner = new Caller(f);
+		joiner.start();
+		awaitWaiting(joiner);
+		task.release.countDown();
+		assertSame(task.error, leader.await());
+		assertSame(task.error, joiner.await());
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TetherInterfacesTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private String sysNet() throws IOException {
+		File dir = tmp.newFolder("net");
+		wireless(dir, "wlan0");
+		wireless(dir, "p2p0");
+		new File(dir, "lo").mkdir();
+		new File(dir, "rmnet0").mkdir();
+		new File(dir, "rndis0").mkdir();
+		new File(dir, "bt-pan").mkdir();
+		return dir.getPath();
+	}
+
+	private static void wireless(File sysNet, String name) {
+		new File(new File(sysNet, name), "phy80211").mkdirs();
+	}
+
+	@Test
+	public void scanApOnStation() throws IOException {
+		String sysNet = sysNet();
+		assertEquals(Arrays.asList("bt-pan", "rndis0", "wlan0"),
+				TetherInterfaces.scan(sysNet, "wlan0"));
+	}
+
+	@Test
+	public void scanSeparateAp() throws IOException {
+		String sysNet = sysNet();
+		wireless(new File(sysNet), "swlan0");
+		assertEquals(Arrays.asList("bt-pan", "rndis0", "swlan0"),
+				TetherInterfaces.scan(sysNet, "swlan0"));
+		// named like an AP, even if it is not the guessed device
+		assertEquals(Arrays.asList("bt-pan", "rndis0", "swlan0"),
+				TetherInterfaces.scan(sysNet, "wlan0x"));
+	}
+
+	@Test
+	public void guessApDevice() throws IOException {
+		String sysNet = sysNet();
+		assertNull(TetherInterfaces.guessApDevice(sysNet));
+		wireless(new File(sysNet), "softap0");
+		assertEquals("softap0", TetherInterfaces.guessApDevice(sysNet));
+		wireless(new File(sysNet), "ap0");
+		assertEquals("ap0", TetherInterfaces.guessApDevice(sysNet));
+		// not wireless
+		new File(sysNet, "ap1").mkdir();
+		assertEquals("ap0", TetherInterfaces.guessApDevice(sysNet));
+	}
+}
@@ -16,7 +16,6 @@
 
 package cc.mvdan.accesspoint.example;
 
-import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.Context;
@@ -39,16 +38,23 @@ import android.widget.TextView;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import cc.mvdan.accesspoint.ApSnapshot;
+import cc.mvdan.accesspoint.ApToggle;
+import cc.mvdan.accesspoint.ClientWatcher;
+import cc.mvdan.accesspoint.ReachabilitySweep;
 import cc.mvdan.accesspoint.WifiApControl;
 import cc.mvdan.accesspoint.WifiApControl.Client;
-import cc.mvdan.accesspoint.WifiApControl.ReachableClientListener;
 
 public class MainActivity extends Activity {
 
 	private WifiManager wifiManager;
 	private WifiApControl apControl;
+	private ClientWatcher watcher;
+	private ReachabilitySweep sweep;
 	private ClientArrayAdapter adapter;
 
 	private static final int REQUEST_WRITE_SETTINGS = 1;
@@ -93,6 +99,36 @@ public class MainActivity extends Activity {
 		wifiManager = (WifiManager) getSystemService(Context.WIFI_SERVICE);
 
 		apControl = WifiApControl.getInstance(this);
+		if (apControl != null) {
+			apControl.addStateListener(new WifiApControl.StateListener() {
+				public void onStateChanged(int oldState, int newState) {
+					runOnUiThread(new Runnable() {
+						@Override
+						public void run() {
+							updateText();
+						}
+					});
+				}
+			});
+			watcher = new ClientWatcher(apControl);
+			watcher.addListener(new ClientWatcher.Listener() {
+				public void onClientJoined(Client c) {
+					adapter.add(c);
+				}
+				public void onClientLeft(Client c) {
+					adapter.remove(c);
+				}
+				public void onClientChanged(Client oldClient, Client c) {
+					int pos = adapter.getPosition(oldClient);
+					if (pos < 0) {
+						adapter.add(c);
+						return;
+					}
+					adapter.remove(oldClient);
+					adapter.insert(c, pos);
+				}
+			});
+		}
 
 		new Thread() {
 			@Override
@@ -154,13 +190,13 @@ public class MainActivity extends Activity {
 			return;
 		}
 
-		int state = apControl.getState();
-		sb.append("State: ").append(stateString(state)).append('\n');
+		ApSnapshot snapshot = apControl.snapshot(false);
 
-		boolean enabled = apControl.isEnabled();
-		sb.append("Enabled: ").append(enabled ? "YES" : "NO").append('\n');
+		sb.append("State: ").append(stateString(snapshot.state)).append('\n');
 
-		WifiConfiguration config = apControl.getConfiguration();
+		sb.append("Enabled: ").append(snapshot.enabled ? "YES" : "NO").append('\n');
+
+		WifiConfiguration config = snapshot.configuration;
 		sb.append("WifiConfiguration:");
 		if (config == null) {
 			sb.append(" null\n");
@@ -170,11 +206,11 @@ public class MainActivity extends Activity {
 			sb.append("   preSharedKey: \"").append(config.preSharedKey).append("\"\n");
 		}
 
-		Inet4Address addr4 = apControl.getInet4Address();
+		Inet4Address addr4 = snapshot.inet4Address;
 		sb.append("Inet4Address: ");
 		sb.append(addr4 == null ? "null" : addr4.toString()).append('\n');
 
-		Inet6Address addr6 = apControl.getInet6Address();
+		Inet6Address addr6 = snapshot.inet6Address;
 		sb.append("Inet6Address: ");
 		sb.append(addr6 == null ? "null" : addr6.toString()).append('\n');
 
@@ -187,39 +223,19 @@ public class MainActivity extends Activity {
 
 	private class ClientArrayAdapter extends ArrayAdapter<Client> {
 
-		private boolean[] reachable;
+		private final Set<String> reachable = new HashSet<>();
 
 		public ClientArrayAdapter(Context context, List<Client> clients) {
 			super(context, 0, clients);
-			this.reachable = new boolean[clients.size()];
-		}
-
-		@TargetApi(Build.VERSION_CODES.HONEYCOMB)
-		private void compatAddAll(List<Client> clients) {
-			if (Build.VERSION.SDK_INT < 11) {
-				for (Client client : clients) {
-					add(client);
-				}
-				return;
-			}
-			addAll(clients);
 		}
 
-		public void setClients(List<Client> clients) {
-			clear();
-			if (clients != null) {
-				compatAddAll(clients);
-				reachable = new boolean[clients.size()];
-			}
+		public void clearReachable() {
+			reachable.clear();
 			notifyDataSetChanged();
 		}
 
 		public void setReachable(Client client) {
-			int position = getPosition(client);
-			if (position < 0) {
-				return;
-			}
-			reachable[position] = true;
+			reachable.add(client.hwAddr);
 			notifyDataSetChanged();
 		}
 
@@ -242,7 +258,7 @@ public class MainActivity extends Activity {
 
 			Client client = getItem(position);
 			holder.desc.setText(client.ipAddr + " " + client.hwAddr);
-			holder.reach.setText(reachable[position] ? "R" : "");
+			holder.reach.setText(reachable.contains(client.hwAddr) ? "R" : "");
 
 			return view;
 		}
@@ -257,8 +273,15 @@ public class MainActivity extends Activity {
 		if (apControl == null) {
 			return;
 		}
-		List<Client> clients = apControl.getReachableClients(timeout,
-				new ReachableClientListener() {
+		watcher.refresh();
+		adapter.clearReachable();
+		// Don't let sweeps pile up if refreshing faster than they finish.
+		if (sweep != null) {
+			sweep.cancel();
+		}
+		sweep = apControl.sweepReachableClients(timeout,
+				WifiApControl.PROBE_ISREACHABLE, 1000, 0,
+				new ReachabilitySweep.Listener() {
 			public void onReachableClient(final Client client) {
 				runOnUiThread(new Runnable() {
 					@Override
@@ -267,9 +290,9 @@ public class MainActivity extends Activity {
 					}
 				});
 			}
+			public void onTimeout(Client client) { }
 			public void onComplete() { }
 		});
-		adapter.setClients(clients);
 	}
 
 	private void refresh() {
@@ -281,46 +304,37 @@ public class MainActivity extends Activity {
 		refresh();
 	}
 
-	private void enable() {
-		wifiManager.setWifiEnabled(false);
-		apControl.enable();
-		refresh();
-	}
+	// ToggleDone enables the button again and refreshes once the AP has
+	// reached the requested state, or once that has failed.
+	private class ToggleDone implements ApToggle.Listener {
 
-	private void enableButtonAfter(final Button button, final long time) {
-		new Thread() {
-			@Override
-			public void run() {
-				try {
-					Thread.sleep(time);
-					runOnUiThread(new Runnable() {
-						@Override
-						public void run() {
-							button.setEnabled(true);
-						}
-					});
-				} catch (InterruptedException e) { }
-			}
-		}.start();
+		private final Button button;
+
+		ToggleDone(Button button) {
+			this.button = button;
+		}
+
+		@Override
+		public void onToggleDone(ApToggle toggle) {
+			runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					button.setEnabled(true);
+					refresh();
+				}
+			});
+		}
 	}
 
 	public void enable(View view) {
 		Button button = (Button) view;
 		button.setEnabled(false);
-		enable();
-		enableButtonAfter(button, 1000);
-	}
-
-	private void disable() {
-		apControl.disable();
-		wifiManager.setWifiEnabled(true);
-		refresh();
+		apControl.enableAsync(new ToggleDone(button));
 	}
 
 	public void disable(View view) {
 		Button button = (Button) view;
 		button.setEnabled(false);
-		disable();
-		enableButtonAfter(button, 1000);
+		apControl.disableAsync(new ToggleDone(button));
 	}
 }
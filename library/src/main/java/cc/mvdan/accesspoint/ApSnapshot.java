@@ -0,0 +1,82 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import android.net.wifi.WifiConfiguration;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import cc.mvdan.accesspoint.WifiApControl.Client;
+
+// ApSnapshot holds the status of the Wi-Fi AP at one point in time, as
+// gathered by WifiApControl.snapshot in a single pass.
+public final class ApSnapshot {
+
+	// time is when the snapshot was taken, in System.currentTimeMillis
+	// time.
+	public final long time;
+
+	// state is as returned by WifiApControl.getState.
+	public final int state;
+
+	// enabled is whether state is WifiApControl.STATE_ENABLED.
+	public final boolean enabled;
+
+	// configuration is as returned by WifiApControl.getConfiguration. It
+	// belongs to this snapshot, so don't modify it.
+	public final WifiConfiguration configuration;
+
+	// inet4Address and inet6Address are as returned by
+	// WifiApControl.getInet4Address and WifiApControl.getInet6Address.
+	public final Inet4Address inet4Address;
+	public final Inet6Address inet6Address;
+
+	// addresses is as returned by WifiApControl.getAddresses, but
+	// unmodifiable. It is empty if the AP is not enabled.
+	public final List<InetAddress> addresses;
+
+	// clients is as returned by WifiApControl.getClients, but
+	// unmodifiable. It is null if the AP is not enabled or if clients
+	// were not requested.
+	public final List<Client> clients;
+
+	ApSnapshot(long time, int state, WifiConfiguration configuration,
+			InetAddress[] addrs, List<Client> clients) {
+		this.time = time;
+		this.state = state;
+		this.enabled = state == WifiApControl.STATE_ENABLED;
+		this.configuration = configuration;
+		Inet4Address addr4 = null;
+		Inet6Address addr6 = null;
+		for (InetAddress addr : addrs) {
+			if (addr4 == null && addr instanceof Inet4Address) {
+				addr4 = (Inet4Address) addr;
+			} else if (addr6 == null && addr instanceof Inet6Address) {
+				addr6 = (Inet6Address) addr;
+			}
+		}
+		this.inet4Address = addr4;
+		this.inet6Address = addr6;
+		this.addresses = Collections.unmodifiableList(Arrays.asList(addrs.clone()));
+		this.clients = clients == null ? null : Collections.unmodifiableList(clients);
+	}
+}
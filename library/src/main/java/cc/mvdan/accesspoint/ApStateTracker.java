@@ -0,0 +1,201 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// ApStateTracker follows the Wi-Fi AP state via the hidden
+// WIFI_AP_STATE_CHANGED broadcast, which the system sends as sticky. Once a
+// broadcast has been delivered, the tracked state can be trusted and no
+// reflective calls are needed to know it.
+//
+// Until then, the state is only updated by explicit calls to
+// WifiApControl.getWifiApState, and listeners are kept up to date by
+// polling on the main thread. Afterwards, polled states are ignored, since
+// they may be older than the last broadcast.
+//
+// Listeners are always called on the main thread, in the order in which the
+// changes were seen.
+final class ApStateTracker extends BroadcastReceiver {
+
+	// Host is what the tracker needs from WifiApControl.
+	interface Host {
+
+		// onStateChanged is called for every change before any
+		// listeners, with the tracker locked.
+		void onStateChanged(int oldState, int newState);
+
+		// pollState reads the current state and passes it to observe.
+		void pollState();
+	}
+
+	private static final String TAG = "WifiApControl";
+
+	// From the hidden WifiManager constants.
+	static final String WIFI_AP_STATE_CHANGED_ACTION = "android.net.wifi.WIFI_AP_STATE_CHANGED";
+	static final String EXTRA_WIFI_AP_STATE = "wifi_state";
+
+	static final long POLL_INTERVAL = 1000;
+
+	private final Context context;
+	private final Host host;
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final List<WifiApControl.StateListener> listeners = new CopyOnWriteArrayList<>();
+
+	private volatile int state = -1;
+	private volatile boolean broadcasts;
+	private boolean registered;
+	private boolean polling;
+
+	ApStateTracker(Context context, Host host) {
+		this.context = context;
+		this.host = host;
+	}
+
+	synchronized void start() {
+		Intent sticky;
+		try {
+			sticky = context.registerReceiver(this, new IntentFilter(WIFI_AP_STATE_CHANGED_ACTION));
+		} catch (RuntimeException e) {
+			Log.w(TAG, "Could not register for AP state broadcasts - polling instead", e);
+			return;
+		}
+		registered = true;
+		if (sticky != null) {
+			onReceive(context, sticky);
+		}
+	}
+
+	// stop unregisters the receiver. No more broadcasts will keep the
+	// state up to date, so it is not trusted anymore.
+	synchronized void stop() {
+		handler.removeCallbacks(poll);
+		polling = false;
+		if (registered) {
+			context.unregisterReceiver(this);
+			registered = false;
+		}
+		broadcasts = false;
+	}
+
+	@Override
+	public void onReceive(Context c, Intent intent) {
+		int s = intent.getIntExtra(EXTRA_WIFI_AP_STATE, -1);
+		if (s < 0) {
+			return;
+		}
+		update(WifiApControl.newStateNumber(s), true);
+	}
+
+	// get returns the tracked state, or -1 if it cannot be trusted yet.
+	int get() {
+		if (!broadcasts) {
+			return -1;
+		}
+		return state;
+	}
+
+	// observe records a state read via reflection. It is ignored once
+	// broadcasts are delivered.
+	void observe(int newState) {
+		update(newState, false);
+	}
+
+	// update records a new state and reports any change. Listeners are
+	// posted to the main thread while holding the lock, so that they see
+	// the changes in the same order as the host.
+	private synchronized void update(int newState, boolean broadcast) {
+		if (broadcast) {
+			broadcasts = true;
+		} else if (broadcasts) {
+			return;
+		}
+		int old = state;
+		state = newState;
+		if (old == newState) {
+			return;
+		}
+		host.onStateChanged(old, newState);
+		if (old < 0) {
+			// nothing was known before, so this is not a transition
+			return;
+		}
+		handler.post(new Notify(old, newState));
+	}
+
+	private final class Notify implements Runnable {
+
+		final int oldState;
+		final int newState;
+
+		Notify(int oldState, int newState) {
+			this.oldState = oldState;
+			this.newState = newState;
+		}
+
+		public void run() {
+			for (WifiApControl.StateListener l : listeners) {
+				l.onStateChanged(oldState, newState);
+			}
+		}
+	}
+
+	void addListener(WifiApControl.StateListener listener) {
+		listeners.add(listener);
+		synchronized (this) {
+			if (!broadcasts && !polling) {
+				polling = true;
+				handler.post(poll);
+			}
+		}
+	}
+
+	void removeListener(WifiApControl.StateListener listener) {
+		listeners.remove(listener);
+	}
+
+	// postDelayed runs r on the main thread after delay milliseconds.
+	void postDelayed(Runnable r, long delay) {
+		handler.postDelayed(r, delay);
+	}
+
+	void removeCallbacks(Runnable r) {
+		handler.removeCallbacks(r);
+	}
+
+	private final Runnable poll = new Runnable() {
+		public void run() {
+			synchronized (ApStateTracker.this) {
+				if (broadcasts || listeners.isEmpty()) {
+					polling = false;
+					return;
+				}
+			}
+			host.pollState();
+			handler.postDelayed(this, POLL_INTERVAL);
+		}
+	};
+}
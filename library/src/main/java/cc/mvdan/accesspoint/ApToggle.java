@@ -0,0 +1,248 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// ApToggle is the pending result of WifiApControl.enableAsync or
+// WifiApControl.disableAsync. It completes with the target state once the
+// AP reaches it, and fails if the AP reaches STATE_FAILED, if the request
+// is not accepted, or if the deadline passes first.
+//
+// It also records how long each phase took: turning Wi-Fi off before
+// enabling the AP, making the request, and the AP transition itself.
+//
+// Since the toggle is usually completed on the main thread, get must not be
+// called from there.
+public final class ApToggle implements Future<Integer> {
+
+	// Listener is an interface to be told when a toggle is done, be it
+	// successfully or not.
+	public interface Listener {
+		void onToggleDone(ApToggle toggle);
+	}
+
+	private final int targetState;
+	private final Listener listener;
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	private final long startedAt;
+	private long handoffDoneAt;
+	private long requestDoneAt;
+	private long finishedAt;
+
+	private boolean finished;
+	private boolean cancelled;
+	private int state = -1;
+	private Exception failure;
+
+	// cleanups are run once when the toggle finishes, to unregister
+	// whatever was waiting on the AP or Wi-Fi state.
+	private List<Runnable> cleanups = new ArrayList<>(2);
+
+	ApToggle(int targetState, Listener listener) {
+		this.targetState = targetState;
+		this.listener = listener;
+		this.startedAt = SystemClock.elapsedRealtime();
+	}
+
+	// getTargetState returns the state this toggle is waiting for, either
+	// STATE_ENABLED or STATE_DISABLED.
+	public int getTargetState() {
+		return targetState;
+	}
+
+	// addCleanup runs cleanup when the toggle finishes, or right away if
+	// it already has.
+	void addCleanup(Runnable cleanup) {
+		synchronized (this) {
+			if (!finished) {
+				cleanups.add(cleanup);
+				return;
+			}
+		}
+		cleanup.run();
+	}
+
+	// handoffDone records that Wi-Fi is now off. Returns false if that was
+	// already recorded or if the toggle is finished.
+	synchronized boolean handoffDone() {
+		if (finished || handoffDoneAt != 0) {
+			return false;
+		}
+		handoffDoneAt = SystemClock.elapsedRealtime();
+		return true;
+	}
+
+	// skipHandoff records that Wi-Fi did not need to be turned off.
+	synchronized void skipHandoff() {
+		handoffDoneAt = startedAt;
+	}
+
+	synchronized void requestDone() {
+		requestDoneAt = SystemClock.elapsedRealtime();
+	}
+
+	// complete finishes the toggle successfully. Returns false if it was
+	// already finished.
+	boolean complete(int state) {
+		return finish(state, null, false);
+	}
+
+	// fail finishes the toggle with an error. Returns false if it was
+	// already finished.
+	boolean fail(int state, Exception failure) {
+		return finish(state, failure, false);
+	}
+
+	private boolean finish(int state, Exception failure, boolean cancel) {
+		List<Runnable> c;
+		synchronized (this) {
+			if (finished) {
+				return false;
+			}
+			finished = true;
+			cancelled = cancel;
+			this.state = state;
+			this.failure = failure;
+			finishedAt = SystemClock.elapsedRealtime();
+			if (handoffDoneAt == 0) {
+				handoffDoneAt = finishedAt;
+			}
+			if (requestDoneAt == 0) {
+				requestDoneAt = finishedAt;
+			}
+			c = cleanups;
+			cleanups = null;
+		}
+		for (Runnable r : c) {
+			r.run();
+		}
+		done.countDown();
+		if (listener != null) {
+			listener.onToggleDone(this);
+		}
+		return true;
+	}
+
+	// cancel stops waiting for the target state. The request that was
+	// already made to the system is not undone.
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return finish(-1, null, true);
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	public synchronized boolean isDone() {
+		return finished;
+	}
+
+	// isSuccessful reports whether the toggle is done and reached the
+	// target state.
+	public synchronized boolean isSuccessful() {
+		return finished && !cancelled && failure == null;
+	}
+
+	// getState returns the last state seen when the toggle finished, or -1
+	// if it has not finished or the state is unknown.
+	public synchronized int getState() {
+		return state;
+	}
+
+	// getFailure returns why the toggle failed, or null.
+	public synchronized Exception getFailure() {
+		return failure;
+	}
+
+	// getHandoffMillis returns how long it took to turn Wi-Fi off before
+	// enabling the AP, up to the broadcast saying it was off. It is 0 if
+	// that was not needed.
+	public synchronized long getHandoffMillis() {
+		return handoffDoneAt == 0 ? 0 : handoffDoneAt - startedAt;
+	}
+
+	// getRequestMillis returns how long the hidden setWifiApEnabled call
+	// took.
+	public synchronized long getRequestMillis() {
+		if (requestDoneAt == 0 || handoffDoneAt == 0) {
+			return 0;
+		}
+		return requestDoneAt - handoffDoneAt;
+	}
+
+	// getTransitionMillis returns how long the AP took to reach the
+	// target state once requested.
+	public synchronized long getTransitionMillis() {
+		if (finishedAt == 0) {
+			return 0;
+		}
+		return finishedAt - requestDoneAt;
+	}
+
+	// getTotalMillis returns how long the whole toggle took.
+	public synchronized long getTotalMillis() {
+		if (finishedAt == 0) {
+			return 0;
+		}
+		return finishedAt - startedAt;
+	}
+
+	// get waits for the toggle to finish. It throws IllegalStateException
+	// if called on the main thread, as it would never return.
+	public Integer get() throws InterruptedException, ExecutionException {
+		checkNotMainThread();
+		done.await();
+		return result();
+	}
+
+	public Integer get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		checkNotMainThread();
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return result();
+	}
+
+	private static void checkNotMainThread() {
+		if (Looper.myLooper() == Looper.getMainLooper()) {
+			throw new IllegalStateException("ApToggle.get called on the main thread");
+		}
+	}
+
+	private synchronized Integer result() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return state;
+	}
+}
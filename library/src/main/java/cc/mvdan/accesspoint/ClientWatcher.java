@@ -0,0 +1,210 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import cc.mvdan.accesspoint.WifiApControl.Client;
+
+// ClientWatcher keeps track of the clients connected to the network across
+// calls to refresh, and reports only what changed since the last one.
+// Clients are keyed by MAC, and the same Client object is reported for a
+// MAC for as long as it stays in the neighbour table with the same IP
+// address, as read by WifiApControl.visitClients. Entries that the kernel could not resolve are
+// not considered clients.
+//
+// The watcher does not poll by itself; call refresh periodically, and the
+// listeners will be called from that same thread.
+public class ClientWatcher {
+
+	// Listener is an interface to receive the changes found by refresh.
+	public interface Listener {
+
+		// onClientJoined is called when a MAC appears in the table.
+		void onClientJoined(Client c);
+
+		// onClientLeft is called when a MAC is no longer in the table.
+		void onClientLeft(Client c);
+
+		// onClientChanged is called when a MAC that was already in the
+		// table moves to another IP address. c replaces oldClient from
+		// then on; it has the same MAC but the new IP address.
+		void onClientChanged(Client oldClient, Client c);
+	}
+
+	private final WifiApControl control;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	// collector gathers the current pass, and previous holds the last
+	// one. They are swapped after every pass that changed anything.
+	private Collector collector = new Collector();
+	private Collector previous = new Collector();
+
+	// Both tables are keyed by packed MAC. They are swapped on every
+	// refresh so that neither needs to be reallocated.
+	private LongTable<Client> clients = new LongTable<>();
+	private LongTable<Client> spare = new LongTable<>();
+	private boolean first = true;
+
+	public ClientWatcher(WifiApControl control) {
+		this.control = control;
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	// Collector gathers one pass over the table into reused arrays.
+	private static final class Collector implements WifiApControl.ClientVisitor {
+
+		int[] ipAddrs = new int[16];
+		long[] hwAddrs = new long[16];
+		int[] arpStates = new int[16];
+		int count;
+
+		void reset() {
+			count = 0;
+		}
+
+		// sameAs reports whether both passes saw the same rows in the
+		// same order.
+		boolean sameAs(Collector o) {
+			if (count != o.count) {
+				return false;
+			}
+			for (int i = 0; i < count; i++) {
+				if (ipAddrs[i] != o.ipAddrs[i] || hwAddrs[i] != o.hwAddrs[i]
+						|| arpStates[i] != o.arpStates[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public void visitClient(int ipAddr, long hwAddr, int arpState) {
+			if (arpState == Client.ARP_INCOMPLETE) {
+				return;
+			}
+			if (count == ipAddrs.length) {
+				int[] ips = new int[count * 2];
+				long[] hws = new long[count * 2];
+				int[] states = new int[count * 2];
+				System.arraycopy(ipAddrs, 0, ips, 0, count);
+				System.arraycopy(hwAddrs, 0, hws, 0, count);
+				System.arraycopy(arpStates, 0, states, 0, count);
+				ipAddrs = ips;
+				hwAddrs = hws;
+				arpStates = states;
+			}
+			ipAddrs[count] = ipAddr;
+			hwAddrs[count] = hwAddr;
+			arpStates[count] = arpState;
+			count++;
+		}
+	}
+
+	// getClients returns the clients as of the last refresh.
+	public synchronized List<Client> getClients() {
+		List<Client> result = new ArrayList<>(clients.size());
+		for (int i = 0; i < clients.capacity(); i++) {
+			Client c = clients.valueAt(i);
+			if (c != null) {
+				result.add(c);
+			}
+		}
+		return result;
+	}
+
+	// refresh reads the neighbour table once and calls the listeners for
+	// every change since the previous refresh. If the table content is the same
+	// as last time, row by row, no further work is done. A disabled Wi-Fi
+	// AP is seen as an empty table, but a table that could not be read
+	// changes nothing, so that a failed read does not look like every
+	// client leaving. Returns whether anything changed.
+	public synchronized boolean refresh() {
+		Collector collector = this.collector;
+		collector.reset();
+		boolean enabled = control.isEnabled();
+		if (!control.visitClients(collector) && enabled) {
+			// the read failed; keep the previous set
+			return false;
+		}
+		if (!first && collector.sameAs(previous)) {
+			return false;
+		}
+		first = false;
+		this.collector = previous;
+		previous = collector;
+
+		LongTable<Client> next = spare;
+		next.clear();
+		boolean changed = false;
+		for (int i = 0; i < collector.count; i++) {
+			long hwAddr = collector.hwAddrs[i];
+			if (next.containsKey(hwAddr)) {
+				continue;
+			}
+			int ipAddr = collector.ipAddrs[i];
+			Client c = clients.remove(hwAddr);
+			if (c == null) {
+				c = new Client(ipAddr, hwAddr, collector.arpStates[i]);
+				next.put(hwAddr, c);
+				changed = true;
+				control.logEvent(SessionLog.EVENT_JOIN, hwAddr, ipAddr, c.arpState, 0);
+				for (Listener l : listeners) {
+					l.onClientJoined(c);
+				}
+				continue;
+			}
+			if (c.packedIpAddr == ipAddr) {
+				c.arpState = collector.arpStates[i];
+				next.put(hwAddr, c);
+				continue;
+			}
+			Client old = c;
+			c = new Client(ipAddr, hwAddr, collector.arpStates[i]);
+			next.put(hwAddr, c);
+			changed = true;
+			control.logEvent(SessionLog.EVENT_IP_CHANGE, hwAddr, ipAddr, c.arpState, old.packedIpAddr);
+			for (Listener l : listeners) {
+				l.onClientChanged(old, c);
+			}
+		}
+		// Whatever was not claimed by this pass has left.
+		for (int i = 0; i < clients.capacity(); i++) {
+			Client c = clients.valueAt(i);
+			if (c == null) {
+				continue;
+			}
+			changed = true;
+			control.logEvent(SessionLog.EVENT_LEAVE, c.packedHwAddr, c.packedIpAddr, c.arpState, 0);
+			for (Listener l : listeners) {
+				l.onClientLeft(c);
+			}
+		}
+		clients.clear();
+		spare = clients;
+		clients = next;
+		return changed;
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import android.annotation.TargetApi;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.os.Build;
+import android.os.Process;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// HostapdChannel is one connection to the hostapd control interface, which
+// is a Unix datagram socket. Like wpa_ctrl, it binds its own socket to a
+// unique address so that hostapd can reply to it. Datagram local sockets
+// are only available on 4.4 or later.
+@TargetApi(Build.VERSION_CODES.KITKAT)
+final class HostapdChannel implements HostapdSession.Transport {
+
+	// hostapd never sends more than this in a single reply or event.
+	private static final int BUF_SIZE = 4096;
+
+	private static final AtomicInteger count = new AtomicInteger();
+
+	private final LocalSocket socket;
+	private final byte[] buf = new byte[BUF_SIZE];
+	private final InputStream in;
+	private final OutputStream out;
+
+	HostapdChannel(String path) throws IOException {
+		socket = new LocalSocket(LocalSocket.SOCKET_DGRAM);
+		try {
+			// An abstract address, so that there is no file to
+			// clean up afterwards.
+			String local = "cc.mvdan.accesspoint.hostapd-" + Process.myPid()
+					+ "-" + count.incrementAndGet();
+			socket.bind(new LocalSocketAddress(local, LocalSocketAddress.Namespace.ABSTRACT));
+			socket.connect(new LocalSocketAddress(path, LocalSocketAddress.Namespace.FILESYSTEM));
+			in = socket.getInputStream();
+			out = socket.getOutputStream();
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public void send(String cmd) throws IOException {
+		out.write(cmd.getBytes("US-ASCII"));
+	}
+
+	// receive waits for the next message for up to timeout milliseconds,
+	// or forever if timeout is zero.
+	public String receive(int timeout) throws IOException {
+		socket.setSoTimeout(timeout);
+		int n = in.read(buf);
+		if (n < 0) {
+			throw new EOFException("hostapd control socket closed");
+		}
+		return new String(buf, 0, n, "US-ASCII");
+	}
+
+	public void close() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// nothing useful to do
+		}
+	}
+}
@@ -0,0 +1,316 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import cc.mvdan.accesspoint.WifiApControl.Client;
+
+// HostapdMonitor follows the stations associated with the Wi-Fi AP via the
+// control interface of hostapd. Unlike the ARP table, which may keep
+// entries for minutes, hostapd reports connections and disconnections as
+// they happen, and no polling is involved.
+//
+// hostapd is restarted every time the AP is, so the monitor attaches again
+// each time the AP is enabled. While detached, no stations are reported.
+//
+// The control sockets are usually only accessible to system apps or with
+// root, and datagram local sockets need 4.4 or later, so this is an
+// optional backend: open returns null when it is not available.
+public final class HostapdMonitor {
+
+	private static final String TAG = "WifiApControl";
+
+	// Listener is an interface to receive station events. It is called
+	// from the thread of the monitor.
+	public interface Listener {
+
+		void onStationConnected(String hwAddr);
+
+		void onStationDisconnected(String hwAddr);
+	}
+
+	// The directories where hostapd creates its control sockets, one per
+	// interface, on recent Android versions, older ones and desktop Linux.
+	static final String[] CTRL_DIRS = {
+		"/data/vendor/wifi/hostapd/ctrl",
+		"/data/misc/wifi/hostapd",
+		"/var/run/hostapd",
+	};
+
+	// hostapd may not have created its socket yet by the time the AP is
+	// reported as enabled, so attaching again is retried a few times.
+	private static final int ATTACH_TRIES = 5;
+	private static final long ATTACH_RETRY_DELAY = 500;
+
+	static final HostapdSession.Opener OPENER = new HostapdSession.Opener() {
+		public HostapdSession.Transport open(String path) throws IOException {
+			return new HostapdChannel(path);
+		}
+	};
+
+	private final WifiApControl control;
+	// fixedPath is the socket given to open, or null to look for it.
+	private final String fixedPath;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	// Both guarded by this. session is null while detached.
+	private HostapdSession session;
+	private boolean attaching;
+	private volatile boolean closed;
+
+	private final HostapdSession.Listener sessionListener = new HostapdSession.Listener() {
+		public void onStation(String hwAddr, boolean connected) {
+			for (Listener l : listeners) {
+				if (connected) {
+					l.onStationConnected(hwAddr);
+				} else {
+					l.onStationDisconnected(hwAddr);
+				}
+			}
+		}
+	};
+
+	private final WifiApControl.StateListener stateListener = new WifiApControl.StateListener() {
+		public void onStateChanged(int oldState, int newState) {
+			if (newState == WifiApControl.WIFI_AP_STATE_ENABLED) {
+				reattach();
+			}
+		}
+	};
+
+	private HostapdMonitor(WifiApControl control, String fixedPath, HostapdSession first) {
+		this.control = control;
+		this.fixedPath = fixedPath;
+		this.session = first;
+		control.addStateListener(stateListener);
+		startThread(first);
+	}
+
+	// open attaches to the hostapd instance that serves the Wi-Fi AP of
+	// control, looking for its socket in the usual directories. Returns
+	// null if it cannot be found or attached to.
+	public static HostapdMonitor open(WifiApControl control) {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+			Log.w(TAG, "Older device - hostapd control sockets are not supported");
+			return null;
+		}
+		String path = findSocket(control.getDeviceName());
+		if (path == null) {
+			Log.w(TAG, "Could not find the hostapd control socket");
+			return null;
+		}
+		HostapdSession s = connect(path);
+		return s == null ? null : new HostapdMonitor(control, null, s);
+	}
+
+	// open is like open(WifiApControl), with the path of the control
+	// socket given explicitly.
+	public static HostapdMonitor open(WifiApControl control, String path) {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+			Log.w(TAG, "Older device - hostapd control sockets are not supported");
+			return null;
+		}
+		HostapdSession s = connect(path);
+		return s == null ? null : new HostapdMonitor(control, path, s);
+	}
+
+	static String findSocket(String deviceName) {
+		return HostapdSession.findSocket(CTRL_DIRS, deviceName, OPENER);
+	}
+
+	private static HostapdSession connect(String path) {
+		try {
+			return HostapdSession.open(OPENER, path);
+		} catch (IOException | SecurityException e) {
+			Log.w(TAG, "Could not attach to hostapd at " + path, e);
+			return null;
+		}
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	// isAttached reports whether events are being received. It turns false
+	// after close, or while hostapd is gone, such as while the AP is off.
+	public synchronized boolean isAttached() {
+		return session != null;
+	}
+
+	// isConnected reports whether the station with the given MAC is
+	// associated with the AP.
+	public boolean isConnected(String hwAddr) {
+		HostapdSession s = current();
+		long packed = Addresses.parseMac(hwAddr);
+		return s != null && packed >= 0 && s.isConnected(packed);
+	}
+
+	// getStations returns the MACs of the associated stations.
+	public List<String> getStations() {
+		HostapdSession s = current();
+		if (s == null) {
+			return new ArrayList<>();
+		}
+		return s.getStations();
+	}
+
+	// getClients is like WifiApControl.getClients, but it only returns
+	// the clients that are associated right now. The IP addresses come
+	// from the neighbour table, preferring IPv4, so stations that have not
+	// been given an address yet are left out; see getStations for those.
+	public List<Client> getClients() {
+		List<Client> neighbours = control.getClients();
+		if (neighbours == null) {
+			return null;
+		}
+		List<Client> result = new ArrayList<>();
+		HostapdSession s = current();
+		if (s == null) {
+			return result;
+		}
+		LongTable<Client> byMac = new LongTable<>(neighbours.size());
+		for (Client c : neighbours) {
+			if (c.packedHwAddr < 0 || !s.isConnected(c.packedHwAddr)) {
+				continue;
+			}
+			Client prev = byMac.get(c.packedHwAddr);
+			if (prev == null) {
+				byMac.put(c.packedHwAddr, c);
+				result.add(c);
+			} else if (prev.family != Client.FAMILY_IPV4 && c.family == Client.FAMILY_IPV4) {
+				byMac.put(c.packedHwAddr, c);
+				result.set(result.indexOf(prev), c);
+			}
+		}
+		return result;
+	}
+
+	// close detaches from hostapd and stops the thread of the monitor.
+	public void close() {
+		HostapdSession s;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			s = session;
+			session = null;
+		}
+		control.removeStateListener(stateListener);
+		if (s != null) {
+			s.detach();
+		}
+	}
+
+	private synchronized HostapdSession current() {
+		return session;
+	}
+
+	// reattach connects to hostapd again in the background, unless the
+	// monitor is still attached or already trying.
+	private void reattach() {
+		synchronized (this) {
+			if (closed || session != null || attaching) {
+				return;
+			}
+			attaching = true;
+		}
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				HostapdSession s = null;
+				for (int i = 0; i < ATTACH_TRIES && s == null && !closed; i++) {
+					if (i > 0) {
+						try {
+							Thread.sleep(ATTACH_RETRY_DELAY);
+						} catch (InterruptedException e) {
+							break;
+						}
+					}
+					String path = fixedPath != null ? fixedPath : findSocket(control.getDeviceName());
+					if (path != null) {
+						s = connect(path);
+					}
+				}
+				synchronized (HostapdMonitor.this) {
+					attaching = false;
+					if (s == null) {
+						return;
+					}
+					if (closed) {
+						s.close();
+						return;
+					}
+					session = s;
+				}
+				for (String mac : s.getStations()) {
+					sessionListener.onStation(mac, true);
+				}
+				follow(s);
+			}
+		}, "HostapdMonitor");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	private void startThread(final HostapdSession s) {
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				follow(s);
+			}
+		}, "HostapdMonitor");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	// follow reads the events of s until it is closed or hostapd goes
+	// away. In the latter case, all of its stations are reported as
+	// disconnected.
+	private void follow(HostapdSession s) {
+		try {
+			while (!closed) {
+				s.next(sessionListener);
+			}
+		} catch (IOException e) {
+			boolean lost;
+			synchronized (this) {
+				lost = session == s;
+				if (lost) {
+					session = null;
+				}
+			}
+			if (lost) {
+				Log.w(TAG, "Lost hostapd - attaching again once the AP is enabled", e);
+				for (String mac : s.getStations()) {
+					sessionListener.onStation(mac, false);
+				}
+			}
+		} finally {
+			s.close();
+		}
+	}
+}
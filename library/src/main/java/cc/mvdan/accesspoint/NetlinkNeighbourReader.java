@@ -0,0 +1,88 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+// NetlinkNeighbourReader dumps the kernel neighbour table, both IPv4 and
+// IPv6, over a NETLINK_ROUTE socket. It needs android.system.Os, so it is
+// only available on 5.0 or later. Newer versions of Android may also deny
+// apps access to the table, in which case read fails and isDenied tells so.
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class NetlinkNeighbourReader {
+
+	// Large enough for any single datagram of a neighbour dump.
+	private static final int BUF_SIZE = 32 * 1024;
+
+	private final byte[] buf = new byte[BUF_SIZE];
+	private final NeighbourParser parser;
+	private int seq;
+
+	NetlinkNeighbourReader(int ifindex) {
+		parser = new NeighbourParser(buf, ifindex);
+	}
+
+	// read dumps the whole table, calling the visitor for every entry on
+	// the interface the reader was created for.
+	synchronized void read(NeighbourParser.Visitor visitor) throws IOException {
+		FileDescriptor fd;
+		try {
+			fd = Os.socket(OsConstants.AF_NETLINK, OsConstants.SOCK_DGRAM,
+					NeighbourParser.NETLINK_ROUTE);
+		} catch (ErrnoException e) {
+			throw new IOException(e);
+		}
+		try {
+			int len = NeighbourParser.dumpRequest(buf, ++seq);
+			Os.write(fd, buf, 0, len);
+			for (;;) {
+				int n = Os.read(fd, buf, 0, buf.length);
+				if (n <= 0) {
+					throw new IOException("netlink dump ended early");
+				}
+				if (parser.parse(n, visitor)) {
+					return;
+				}
+			}
+		} catch (ErrnoException e) {
+			throw new IOException(e);
+		} finally {
+			try {
+				Os.close(fd);
+			} catch (ErrnoException e) {
+				// nothing useful to do
+			}
+		}
+	}
+
+	// isDenied reports whether an exception thrown by read means that
+	// access to the table was denied, as opposed to a transient error.
+	static boolean isDenied(IOException e) {
+		if (!(e.getCause() instanceof ErrnoException)) {
+			return false;
+		}
+		int errno = ((ErrnoException) e.getCause()).errno;
+		return errno == OsConstants.EACCES || errno == OsConstants.EPERM;
+	}
+}
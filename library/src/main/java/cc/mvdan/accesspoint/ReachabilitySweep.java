@@ -0,0 +1,284 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cc.mvdan.accesspoint.WifiApControl.Client;
+import cc.mvdan.accesspoint.WifiApControl.ReachableClientListener;
+
+// ReachabilitySweep is a handle on a running reachability check of a set of
+// clients, as started by WifiApControl.sweepReachableClients.
+//
+// Results are passed to the listener in the order in which they complete.
+// The sweep ends when every client has been checked, when it is cancelled,
+// when its deadline passes, or when enough reachable clients have been
+// found. Any client still unchecked at that point is passed to onTimeout,
+// and then onComplete is called. The listener is never called after that,
+// and never from two threads at once.
+//
+// At most window checks run at once, and each one that ends starts the
+// next, so that no more probes are started once the sweep has ended. The
+// window bounds the threads of blocking probers; probers that cost little
+// per probe in flight can use UNBOUNDED_WINDOW, so that the sweep takes
+// about one timeout instead of one per window.
+public final class ReachabilitySweep {
+
+	// Listener extends ReachableClientListener to be told about the
+	// clients that were not checked in time.
+	public interface Listener extends ReachableClientListener {
+
+		// onTimeout is called for each client whose check had not
+		// finished when the sweep ended.
+		void onTimeout(Client c);
+	}
+
+	// Checker starts the check of the i-th client of a sweep. It must end
+	// in a call to report, from any thread, including this one.
+	interface Checker {
+		void check(ReachabilitySweep sweep, int i, Client c);
+	}
+
+	private static final String TAG = "WifiApControl";
+
+	static final int DEFAULT_WINDOW = 32;
+	static final int UNBOUNDED_WINDOW = Integer.MAX_VALUE;
+
+	private static final int EVENT_REACHABLE = 0;
+	private static final int EVENT_TIMEOUT   = 1;
+	private static final int EVENT_COMPLETE  = 2;
+
+	private static final class Event {
+
+		final int kind;
+		final Client client;
+
+		Event(int kind, Client client) {
+			this.kind = kind;
+			this.client = client;
+		}
+	}
+
+	private final List<Client> clients;
+	private final Listener listener;
+	private final int maxReachable;
+	private final Checker checker;
+	private final int window;
+	private final boolean[] done;
+
+	// All guarded by this. Listener events are queued while holding the
+	// lock, and delivered without it by a single thread at a time.
+	private int pending;
+	private int reachable;
+	private boolean finished;
+	private int next;
+	private int running;
+	private boolean feeding;
+	private List<Event> events = new ArrayList<>();
+	private boolean draining;
+
+	// onFinish is run once the sweep finishes, so that its owner can
+	// unschedule the deadline.
+	private Runnable onFinish;
+
+	ReachabilitySweep(List<Client> clients, int maxReachable, Listener listener,
+			Checker checker, int window) {
+		this.clients = clients;
+		this.listener = listener;
+		this.maxReachable = maxReachable;
+		this.checker = checker;
+		this.window = window;
+		this.done = new boolean[clients.size()];
+		this.pending = clients.size();
+	}
+
+	synchronized void setOnFinish(Runnable onFinish) {
+		this.onFinish = onFinish;
+	}
+
+	// getClients returns all the clients being checked, like
+	// WifiApControl.getClients would.
+	public List<Client> getClients() {
+		return clients;
+	}
+
+	// cancel ends the sweep now. Checks already running are not
+	// interrupted, but their results are ignored, and no more are
+	// started.
+	public void cancel() {
+		end();
+	}
+
+	public synchronized boolean isDone() {
+		return finished;
+	}
+
+	// getReachableCount returns how many reachable clients were found so
+	// far.
+	public synchronized int getReachableCount() {
+		return reachable;
+	}
+
+	// start ends the sweep if there is nothing to check, and starts the
+	// first checks otherwise.
+	void start() {
+		Runnable r = null;
+		synchronized (this) {
+			if (!finished && pending == 0) {
+				finished = true;
+				events.add(new Event(EVENT_COMPLETE, null));
+				r = onFinish;
+			}
+		}
+		if (r != null) {
+			r.run();
+		}
+		drain();
+		feed();
+	}
+
+	// feed starts checks until window of them are running. Only one
+	// thread feeds at a time, so that a check that reports right away
+	// does not recurse.
+	private void feed() {
+		synchronized (this) {
+			if (feeding) {
+				return;
+			}
+			feeding = true;
+		}
+		for (;;) {
+			int i;
+			synchronized (this) {
+				if (finished || next == clients.size() || running >= window) {
+					feeding = false;
+					return;
+				}
+				i = next++;
+				running++;
+			}
+			checker.check(this, i, clients.get(i));
+		}
+	}
+
+	// report records the result for the i-th client.
+	void report(int i, boolean isReachable) {
+		Runnable r = null;
+		synchronized (this) {
+			running--;
+			if (finished || done[i]) {
+				return;
+			}
+			done[i] = true;
+			pending--;
+			if (isReachable) {
+				reachable++;
+				events.add(new Event(EVENT_REACHABLE, clients.get(i)));
+			}
+			if (pending == 0) {
+				finished = true;
+				events.add(new Event(EVENT_COMPLETE, null));
+				r = onFinish;
+			} else if (maxReachable > 0 && reachable >= maxReachable) {
+				r = finishLocked();
+			}
+		}
+		if (r != null) {
+			r.run();
+		}
+		drain();
+		feed();
+	}
+
+	// end stops the sweep, reporting every unchecked client as timed out.
+	void end() {
+		Runnable r;
+		synchronized (this) {
+			if (finished) {
+				return;
+			}
+			r = finishLocked();
+		}
+		if (r != null) {
+			r.run();
+		}
+		drain();
+	}
+
+	private Runnable finishLocked() {
+		finished = true;
+		for (int i = 0; i < done.length; i++) {
+			if (!done[i]) {
+				done[i] = true;
+				events.add(new Event(EVENT_TIMEOUT, clients.get(i)));
+			}
+		}
+		pending = 0;
+		events.add(new Event(EVENT_COMPLETE, null));
+		return onFinish;
+	}
+
+	// deliver passes an event to the listener. If the listener throws,
+	// the exception is logged, so that the events after it, such as
+	// onComplete, are still delivered.
+	private void deliver(Event e) {
+		try {
+			switch (e.kind) {
+			case EVENT_REACHABLE:
+				listener.onReachableClient(e.client);
+				break;
+			case EVENT_TIMEOUT:
+				listener.onTimeout(e.client);
+				break;
+			case EVENT_COMPLETE:
+				listener.onComplete();
+				break;
+			}
+		} catch (RuntimeException ex) {
+			Log.e(TAG, "", ex);
+		}
+	}
+
+	// drain delivers the queued events to the listener, unless another
+	// thread is already doing so, in which case that thread will deliver
+	// them too.
+	private void drain() {
+		synchronized (this) {
+			if (draining) {
+				return;
+			}
+			draining = true;
+		}
+		for (;;) {
+			List<Event> batch;
+			synchronized (this) {
+				if (events.isEmpty()) {
+					draining = false;
+					return;
+				}
+				batch = events;
+				events = new ArrayList<>();
+			}
+			for (Event e : batch) {
+				deliver(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// ThroughputSampler measures how much traffic goes through the Wi-Fi AP by
+// sampling the counters of its interface at a fixed interval. Rates are
+// computed over a window of the most recent samples, and the peaks are kept
+// until reset.
+//
+// Each sample is a handful of reads from sysfs files that stay open, with no
+// allocations, so sampling at the default 10 Hz is cheap enough to leave on.
+// Samples taken while the interface does not exist, such as while the AP is
+// disabled, count as zero traffic. If the AP comes back up on an interface
+// with a different name, the sampler follows it.
+public final class ThroughputSampler {
+
+	// Listener is an interface to receive every new sample. It is called
+	// from the thread of the sampler, which should not be blocked.
+	public interface Listener {
+
+		void onSample(ThroughputSampler sampler);
+	}
+
+	public static final long DEFAULT_INTERVAL = 100;
+	public static final int DEFAULT_WINDOW = 10;
+
+	private final WifiApControl control;
+	private final long interval;
+	private final RateWindow window;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	// generation is bumped by every stop, so that a sampler thread that
+	// has not noticed yet cannot touch the window of the next one. Both
+	// are guarded by this, as are the rates.
+	private Thread thread;
+	private int generation;
+
+	private double rxRate;
+	private double txRate;
+	private double rxPacketRate;
+	private double txDropRate;
+	private double peakRxRate;
+	private double peakTxRate;
+
+	public ThroughputSampler(WifiApControl control) {
+		this(control, DEFAULT_INTERVAL, DEFAULT_WINDOW);
+	}
+
+	// ThroughputSampler creates a sampler that takes a sample every
+	// interval milliseconds, and computes the rates over the last window
+	// samples.
+	public ThroughputSampler(WifiApControl control, long interval, int window) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("interval must be positive");
+		}
+		this.control = control;
+		this.interval = interval;
+		this.window = new RateWindow(window, InterfaceStats.COUNTERS);
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	// start begins sampling on a background thread, unless it is already
+	// running.
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		thread = new Thread(new Sampler(generation), "WifiApControl-throughput");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// stop stops sampling and releases the files. The rates and peaks are
+	// kept, and a later start begins a new window.
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+		thread.interrupt();
+		thread = null;
+		generation++;
+		window.clear();
+	}
+
+	private final class Sampler implements Runnable {
+
+		final int generation;
+		final long[] sample = new long[InterfaceStats.COUNTERS];
+
+		Sampler(int generation) {
+			this.generation = generation;
+		}
+
+		public void run() {
+			long next = System.nanoTime() / 1000000;
+			InterfaceStats stats = null;
+			String statsDevice = null;
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					String device = control.getDeviceName();
+					if (!device.equals(statsDevice)) {
+						if (stats != null) {
+							stats.close();
+						}
+						stats = new InterfaceStats(TetherInterfaces.SYS_NET, device);
+						statsDevice = device;
+						synchronized (ThroughputSampler.this) {
+							// the counters of another interface
+							// don't carry over
+							if (isCurrent()) {
+								window.clear();
+							}
+						}
+					}
+					if (!sample(stats)) {
+						return;
+					}
+					for (Listener l : listeners) {
+						l.onSample(ThroughputSampler.this);
+					}
+					next += interval;
+					long now = System.nanoTime() / 1000000;
+					if (next < now) {
+						// fell behind; don't try to catch up
+						next = now;
+					}
+					Thread.sleep(next - now);
+				}
+			} catch (InterruptedException e) {
+				// stopped
+			} finally {
+				if (stats != null) {
+					stats.close();
+				}
+			}
+		}
+
+		// isCurrent reports whether this sampler has not been stopped.
+		// Must hold the lock of the ThroughputSampler.
+		private boolean isCurrent() {
+			return generation == ThroughputSampler.this.generation;
+		}
+
+		// sample reads the counters and updates the rates, returning
+		// false if this sampler was stopped meanwhile. The sample is
+		// stamped with the time it was read, not the time it was due,
+		// so that scheduling delays don't inflate the rates.
+		private boolean sample(InterfaceStats stats) {
+			boolean ok = true;
+			try {
+				stats.read(sample);
+			} catch (IOException e) {
+				ok = false;
+			}
+			long time = SystemClock.elapsedRealtime();
+			synchronized (ThroughputSampler.this) {
+				if (!isCurrent()) {
+					return false;
+				}
+				update(ok, time, sample);
+			}
+			return true;
+		}
+	}
+
+	// update adds a sample to the window and recomputes the rates. Must
+	// hold this.
+	private void update(boolean ok, long time, long[] sample) {
+		if (!ok) {
+			window.clear();
+		} else {
+			window.add(time, sample);
+		}
+		rxRate = window.rate(InterfaceStats.RX_BYTES);
+		txRate = window.rate(InterfaceStats.TX_BYTES);
+		rxPacketRate = window.rate(InterfaceStats.RX_PACKETS);
+		txDropRate = window.rate(InterfaceStats.TX_DROPPED);
+		peakRxRate = Math.max(peakRxRate, rxRate);
+		peakTxRate = Math.max(peakTxRate, txRate);
+	}
+
+	// getRxRate returns the bytes received per second over the window.
+	public synchronized double getRxRate() {
+		return rxRate;
+	}
+
+	// getTxRate returns the bytes sent per second over the window.
+	public synchronized double getTxRate() {
+		return txRate;
+	}
+
+	// getRxPacketRate returns the packets received per second over the
+	// window.
+	public synchronized double getRxPacketRate() {
+		return rxPacketRate;
+	}
+
+	// getTxDropRate returns the outgoing packets dropped per second over
+	// the window.
+	public synchronized double getTxDropRate() {
+		return txDropRate;
+	}
+
+	// getPeakRxRate returns the highest value of getRxRate since the
+	// sampler was created or its peaks were reset.
+	public synchronized double getPeakRxRate() {
+		return peakRxRate;
+	}
+
+	// getPeakTxRate is like getPeakRxRate, for getTxRate.
+	public synchronized double getPeakTxRate() {
+		return peakTxRate;
+	}
+
+	public synchronized void resetPeaks() {
+		peakRxRate = 0;
+		peakTxRate = 0;
+	}
+}
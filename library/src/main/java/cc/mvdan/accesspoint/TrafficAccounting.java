@@ -0,0 +1,163 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import cc.mvdan.accesspoint.WifiApControl.Client;
+
+// TrafficAccounting adds up the traffic of each client from the kernel
+// connection tracking table. Every flow is attributed to the client that
+// started it: what it sent is counted as sent by the client, and the
+// replies as received.
+//
+// The counters are totals over the flows tracked at the time of each
+// update, so they can go down as flows expire. The deltas are what each
+// flow added since the previous update, so they are not thrown off by
+// expiring flows, but they miss flows that were only tracked in between.
+// Packet and byte counts are only available if the kernel has
+// nf_conntrack_acct enabled, but flows are always counted. Only IPv4
+// clients are accounted for.
+public final class TrafficAccounting {
+
+	private static final String TAG = "WifiApControl";
+
+	// Usage is the traffic of one client as of the last update.
+	public static final class Usage {
+
+		public final Client client;
+
+		// flows is the number of tracked connections started by the
+		// client.
+		public final long flows;
+
+		public final long txPackets;
+		public final long txBytes;
+		public final long rxPackets;
+		public final long rxBytes;
+
+		// The growth of each counter since the previous update, or 0
+		// if the client was not known then.
+		public final long txPacketsDelta;
+		public final long txBytesDelta;
+		public final long rxPacketsDelta;
+		public final long rxBytesDelta;
+
+		Usage(Client client, FlowAccounting.Counters c) {
+			this.client = client;
+			flows = c.flows;
+			txPackets = c.txPackets;
+			txBytes = c.txBytes;
+			rxPackets = c.rxPackets;
+			rxBytes = c.rxBytes;
+			txPacketsDelta = c.txPacketsDelta;
+			txBytesDelta = c.txBytesDelta;
+			rxPacketsDelta = c.rxPacketsDelta;
+			rxBytesDelta = c.rxBytesDelta;
+		}
+	}
+
+	private final WifiApControl control;
+	private final ConntrackParser parser;
+	private final FlowAccounting accounting = new FlowAccounting();
+
+	// The IPv4 clients of the last update, and their packed addresses.
+	private final List<Client> clients = new ArrayList<>();
+	private int[] addrs = new int[16];
+
+	public TrafficAccounting(WifiApControl control) {
+		this.control = control;
+		String path = ConntrackParser.CONNTRACK_PATHS[0];
+		for (String p : ConntrackParser.CONNTRACK_PATHS) {
+			if (new File(p).exists()) {
+				path = p;
+				break;
+			}
+		}
+		this.parser = new ConntrackParser(path);
+	}
+
+	// update reads the clients and the connection tracking table once,
+	// and recomputes the usage of every client. Returns false if no Wi-Fi
+	// AP is currently enabled or the table could not be read.
+	public boolean update() {
+		List<Client> clients = control.getClients();
+		if (clients == null) {
+			return false;
+		}
+		synchronized (this) {
+			this.clients.clear();
+			for (Client client : clients) {
+				if (client.family != Client.FAMILY_IPV4) {
+					continue;
+				}
+				int n = this.clients.size();
+				if (contains(addrs, n, client.packedIpAddr)) {
+					// the same client on another list entry
+					continue;
+				}
+				if (n == addrs.length) {
+					int[] grown = new int[n * 2];
+					System.arraycopy(addrs, 0, grown, 0, n);
+					addrs = grown;
+				}
+				addrs[n] = client.packedIpAddr;
+				this.clients.add(client);
+			}
+			try {
+				accounting.update(parser, addrs, this.clients.size());
+			} catch (IOException e) {
+				Log.e(TAG, "", e);
+				this.clients.clear();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean contains(int[] a, int n, int v) {
+		for (int i = 0; i < n; i++) {
+			if (a[i] == v) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// getUsage returns the usage of every IPv4 client as of the last
+	// update.
+	public synchronized List<Usage> getUsage() {
+		List<Usage> result = new ArrayList<>(clients.size());
+		for (Client client : clients) {
+			FlowAccounting.Counters c = accounting.get(client.packedIpAddr);
+			if (c != null) {
+				result.add(new Usage(client, c));
+			}
+		}
+		return result;
+	}
+
+	// close releases the table file. A later update will reopen it.
+	public void close() {
+		parser.close();
+	}
+}
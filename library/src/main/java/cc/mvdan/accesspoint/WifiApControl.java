@@ -17,30 +17,32 @@
 package cc.mvdan.accesspoint;
 
 import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.net.wifi.WifiConfiguration;
 import android.net.wifi.WifiManager;
 import android.os.Build;
+import android.os.Parcel;
 import android.provider.Settings;
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
 
 // WifiApControl provides control over Wi-Fi APs using the singleton pattern.
 // Even though isSupported should be reliable, the underlying hidden APIs that
@@ -50,29 +52,17 @@ final public class WifiApControl {
 
 	private static final String TAG = "WifiApControl";
 
-	private static Method getWifiApConfigurationMethod;
-	private static Method getWifiApStateMethod;
-	private static Method isWifiApEnabledMethod;
-	private static Method setWifiApEnabledMethod;
-
-	static {
-		for (Method method : WifiManager.class.getDeclaredMethods()) {
-			switch (method.getName()) {
-			case "getWifiApConfiguration":
-				getWifiApConfigurationMethod = method;
-				break;
-			case "getWifiApState":
-				getWifiApStateMethod = method;
-				break;
-			case "isWifiApEnabled":
-				isWifiApEnabledMethod = method;
-				break;
-			case "setWifiApEnabled":
-				setWifiApEnabledMethod = method;
-				break;
-			}
-		}
-	}
+	// The hidden WifiManager methods are looked up lazily, the first time
+	// each of them is needed.
+	private static final Invoker getWifiApConfigurationMethod =
+			new Invoker(WifiManager.class, "getWifiApConfiguration");
+	private static final Invoker getWifiApStateMethod =
+			new Invoker(WifiManager.class, "getWifiApState");
+	private static final Invoker isWifiApEnabledMethod =
+			new Invoker(WifiManager.class, "isWifiApEnabled");
+	private static final Invoker setWifiApEnabledMethod =
+			new Invoker(WifiManager.class, "setWifiApEnabled",
+					WifiConfiguration.class, boolean.class);
 
 	public static final int WIFI_AP_STATE_DISABLING = 10;
 	public static final int WIFI_AP_STATE_DISABLED  = 11;
@@ -87,10 +77,10 @@ final public class WifiApControl {
 	public static final int STATE_FAILED    = WIFI_AP_STATE_FAILED;
 
 	private static boolean isSoftwareSupported() {
-		return (getWifiApStateMethod != null
-				&& isWifiApEnabledMethod != null
-				&& setWifiApEnabledMethod != null
-				&& getWifiApConfigurationMethod != null);
+		return (getWifiApStateMethod.isAvailable()
+				&& isWifiApEnabledMethod.isAvailable()
+				&& setWifiApEnabledMethod.isAvailable()
+				&& getWifiApConfigurationMethod.isAvailable());
 	}
 
 	private static boolean isHardwareSupported() {
@@ -105,27 +95,162 @@ final public class WifiApControl {
 
 	private static final String FALLBACK_DEVICE = "wlan0";
 
+	private final Context context;
 	private final WifiManager wm;
-	private final String deviceName;
+	private volatile Device device;
+	private final ApStateTracker stateTracker;
+	private final VisitorAdapter visitorAdapter = new VisitorAdapter();
+	private final NeighbourVisitorAdapter neighbourAdapter = new NeighbourVisitorAdapter();
+	private final ProbeScheduler probes = new ProbeScheduler(ProbeScheduler.DEFAULT_THREADS);
+	private final NioProber nioProbes = new NioProber();
+	private final ReachabilityCache reachability = new ReachabilityCache();
+	private final LeaseIndex leases = new LeaseIndex(LeaseIndex.LEASE_PATHS);
+	private volatile Metrics metrics;
+	private volatile SessionLog sessionLog;
+
+	// Guarded by discoveryListeners. At most one discovery runs at a time.
+	private final List<DiscoveryListener> discoveryListeners = new ArrayList<>();
+	private Thread discovery;
+	private volatile int discoveryRate = SubnetSweeper.DEFAULT_RATE;
+
+	// neighbours is only used on 5.0 or later, and only until access to
+	// the table is denied. neighboursIfindex is the index of the device,
+	// or 0 if it has to be looked up again.
+	private NetlinkNeighbourReader neighbours;
+	private int neighboursIfindex;
+	private boolean neighboursFailed = Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP;
+
+	// Concurrent calls of each of these share a single underlying read.
+	private final SingleFlight<Integer> stateFlight = new SingleFlight<>(new SingleFlight.Task<Integer>() {
+		public Integer run() {
+			return readWifiApState();
+		}
+	});
+	private final SingleFlight<WifiConfiguration> configurationFlight = new SingleFlight<>(new SingleFlight.Task<WifiConfiguration>() {
+		public WifiConfiguration run() {
+			return loadWifiApConfiguration();
+		}
+	});
+	private final SingleFlight<List<Client>> clientsFlight = new SingleFlight<>(new SingleFlight.Task<List<Client>>() {
+		public List<Client> run() {
+			return readClients();
+		}
+	});
+
+	// The AP configuration is cached as a private copy that is never
+	// handed out. configurationGeneration is bumped on every
+	// invalidation, so that a read that started before one is not cached.
+	// Both are guarded by this.
+	private WifiConfiguration cachedConfiguration;
+	private long configurationFetchedAt;
+	private int configurationGeneration;
+	private volatile long configurationMaxAge = DEFAULT_CONFIGURATION_MAX_AGE;
 
-	private static WifiApControl instance = null;
+	// instance is only written while holding the class lock, but it is
+	// volatile so that getInstance can read it without taking the lock
+	// once it is set.
+	private static volatile WifiApControl instance = null;
 
 	private WifiApControl(Context context) {
 		wm = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
-		deviceName = getDeviceName(wm);
+		device = new Device(getDeviceName(wm));
+		Context appContext = context.getApplicationContext();
+		this.context = appContext != null ? appContext : context;
+		ApStateTracker.Host host = new ApStateTracker.Host() {
+			public void onStateChanged(int oldState, int newState) {
+				WifiApControl.this.onStateChanged(oldState, newState);
+			}
+
+			public void pollState() {
+				getWifiApState();
+			}
+		};
+		stateTracker = new ApStateTracker(this.context, host);
+		stateTracker.start();
 	}
 
 	// getInstance is a standard singleton instance getter, constructing
-	// the actual class when first called.
+	// the actual class when first called. It is safe to call from any
+	// thread; only one instance is ever constructed, and once it is, no
+	// locks are taken.
 	public static WifiApControl getInstance(Context context) {
-		if (instance == null) {
-			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && !Settings.System.canWrite(context)) {
-				Log.e(TAG, "6.0 or later, but haven't been granted WRITE_SETTINGS!");
-				return null;
+		WifiApControl c = instance;
+		if (c != null) {
+			return c;
+		}
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && !Settings.System.canWrite(context)) {
+			Log.e(TAG, "6.0 or later, but haven't been granted WRITE_SETTINGS!");
+			return null;
+		}
+		synchronized (WifiApControl.class) {
+			c = instance;
+			if (c == null) {
+				c = new WifiApControl(context);
+				instance = c;
+			}
+		}
+		return c;
+	}
+
+	// close releases the threads and files held by this instance. The next
+	// call to getInstance will construct a new one.
+	public void close() {
+		synchronized (WifiApControl.class) {
+			if (instance == this) {
+				instance = null;
+			}
+		}
+		stateTracker.stop();
+		stopSessionLog();
+		probes.close();
+		nioProbes.close();
+		device.arp.close();
+		synchronized (this) {
+			if (tetherArp != null) {
+				tetherArp.close();
 			}
-			instance = new WifiApControl(context);
 		}
-		return instance;
+	}
+
+	// Device is the network interface used by the Wi-Fi AP, along with
+	// the readers tied to its name. It is replaced as a whole when the AP
+	// comes up on an interface with a different name.
+	private static final class Device {
+
+		final String name;
+		final ArpParser arp;
+		final InterfaceCache iface;
+
+		Device(String name) {
+			this.name = name;
+			this.arp = new ArpParser(ArpParser.ARP_PATH, name);
+			this.iface = new InterfaceCache(name);
+		}
+	}
+
+	// getDeviceName returns the name of the network interface used by the
+	// Wi-Fi AP, as guessed when this instance was constructed or when the
+	// AP was last enabled.
+	String getDeviceName() {
+		return device.name;
+	}
+
+	// guessDevice guesses the AP interface again, since some devices
+	// create it anew each time the AP is enabled, not always with the
+	// same name. The guess is only taken if that interface exists, so
+	// that a failed guess does not replace a good one.
+	private void guessDevice() {
+		Device old = device;
+		String name = getDeviceName(wm);
+		if (name.equals(old.name) || !new File(TetherInterfaces.SYS_NET, name).exists()) {
+			return;
+		}
+		Log.i(TAG, "AP device changed from " + old.name + " to " + name);
+		synchronized (this) {
+			device = new Device(name);
+			neighboursIfindex = 0;
+		}
+		old.arp.close();
 	}
 
 	@TargetApi(Build.VERSION_CODES.GINGERBREAD)
@@ -135,6 +260,10 @@ final public class WifiApControl {
 			return FALLBACK_DEVICE;
 		}
 		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+			String guess = TetherInterfaces.guessApDevice(TetherInterfaces.SYS_NET);
+			if (guess != null) {
+				return guess;
+			}
 			Log.w(TAG, "6.0 or later, unaccessible MAC - falling back to the default device name: " + FALLBACK_DEVICE);
 			return FALLBACK_DEVICE;
 		}
@@ -173,15 +302,101 @@ final public class WifiApControl {
 		return macAddress;
 	}
 
-	private static Object invokeQuietly(Method method, Object receiver, Object... args) {
+	// invokeQuietly without arguments reuses the shared empty array, so
+	// that the getters don't allocate one per call.
+	private Object invokeQuietly(Invoker method, Object receiver) {
+		return invokeQuietly(method, receiver, Invoker.NO_ARGS);
+	}
+
+	private Object invokeQuietly(Invoker method, Object receiver, Object... args) {
+		Metrics m = metrics;
+		long start = m != null ? System.nanoTime() : 0;
+		boolean failed = true;
 		try {
-			return method.invoke(receiver, args);
+			Object result = method.invoke(receiver, args);
+			failed = false;
+			return result;
 		} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
 			Log.e(TAG, "", e);
+		} finally {
+			if (m != null) {
+				m.record(Metrics.OP_INVOKE, start, failed);
+			}
 		}
 		return null;
 	}
 
+	// enableMetrics starts recording metrics about the hot operations of
+	// this instance, and returns them. Until then, the only cost of the
+	// metrics is a null check per operation.
+	public synchronized Metrics enableMetrics() {
+		if (metrics == null) {
+			metrics = new Metrics();
+		}
+		return metrics;
+	}
+
+	// disableMetrics stops recording metrics and drops them.
+	public synchronized void disableMetrics() {
+		metrics = null;
+	}
+
+	// getMetrics returns the metrics being recorded, or null if they are
+	// not enabled.
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	// startSessionLog starts appending client and AP state events to
+	// segment files in dir, to be read later via SessionLogReader. Client
+	// joins and leaves are seen by the ClientWatchers of this instance, and
+	// reachability changes by its probes. If a log is already running, it
+	// is returned as is. Returns null if the log could not be opened.
+	public synchronized SessionLog startSessionLog(File dir) {
+		if (sessionLog == null) {
+			try {
+				sessionLog = new SessionLog(dir);
+			} catch (IOException e) {
+				Log.e(TAG, "", e);
+			}
+		}
+		return sessionLog;
+	}
+
+	// stopSessionLog stops appending events. The files are left in place.
+	public synchronized void stopSessionLog() {
+		if (sessionLog != null) {
+			sessionLog.close();
+			sessionLog = null;
+		}
+	}
+
+	// getSessionLog returns the session log being written, or null if it
+	// is not running.
+	public SessionLog getSessionLog() {
+		return sessionLog;
+	}
+
+	// logEvent appends an event to the session log, if it is running. A
+	// log that fails is stopped.
+	void logEvent(int type, long hwAddr, int ipAddr, int state, int aux) {
+		SessionLog l = sessionLog;
+		if (l == null) {
+			return;
+		}
+		try {
+			l.append(type, hwAddr, ipAddr, state, aux);
+		} catch (IOException e) {
+			Log.e(TAG, "", e);
+			synchronized (this) {
+				if (sessionLog == l) {
+					l.close();
+					sessionLog = null;
+				}
+			}
+		}
+	}
+
 	// isWifiApEnabled returns whether the Wi-Fi AP is currently enabled.
 	// If an error occured invoking the method via reflection, false is
 	// returned.
@@ -190,12 +405,34 @@ final public class WifiApControl {
 		if (result == null) {
 			return false;
 		}
-		return (Boolean) result;
+		boolean enabled = (Boolean) result;
+		observeEnabled(enabled);
+		return enabled;
 	}
 
-	// isEnabled is a commodity function alias for isWifiApEnabled.
+	// lastEnabled is the last enabled state that was observed, or -1 if
+	// none was yet.
+	private volatile int lastEnabled = -1;
+
+	// observeEnabled drops what is cached about the AP interface whenever
+	// the AP is seen going up or down.
+	private void observeEnabled(boolean enabled) {
+		int now = enabled ? 1 : 0;
+		if (lastEnabled != now) {
+			lastEnabled = now;
+			device.iface.invalidate();
+		}
+	}
+
+	// isEnabled is like isWifiApEnabled, but once the AP state broadcasts
+	// are known to be delivered, it answers from the tracked state without
+	// any reflective call.
 	public boolean isEnabled() {
-		return isWifiApEnabled();
+		int state = stateTracker.get();
+		if (state < 0) {
+			return isWifiApEnabled();
+		}
+		return state == WIFI_AP_STATE_ENABLED;
 	}
 
 	// newStateNumber adapts the state constants to the current values in
@@ -209,24 +446,154 @@ final public class WifiApControl {
 
 	// getWifiApState returns the current Wi-Fi AP state.
 	// If an error occured invoking the method via reflection, -1 is
-	// returned.
+	// returned. Concurrent calls share a single reflective call.
 	public int getWifiApState() {
+		return stateFlight.call();
+	}
+
+	private int readWifiApState() {
 		Object result = invokeQuietly(getWifiApStateMethod, wm);
 		if (result == null) {
 			return -1;
 		}
-		return newStateNumber((Integer) result);
+		int state = newStateNumber((Integer) result);
+		stateTracker.observe(state);
+		return state;
 	}
 
-	// getState is a commodity function alias for getWifiApState.
+	// getState is like getWifiApState, but once the AP state broadcasts
+	// are known to be delivered, it answers from the tracked state without
+	// any reflective call.
 	public int getState() {
-		return getWifiApState();
+		int state = stateTracker.get();
+		if (state < 0) {
+			return getWifiApState();
+		}
+		return state;
+	}
+
+	// StateListener is an interface to be told about AP state changes.
+	public interface StateListener {
+
+		// onStateChanged is called on the main thread with the
+		// previous and the new state.
+		void onStateChanged(int oldState, int newState);
+	}
+
+	// addStateListener registers a listener for AP state changes. They
+	// are pushed via the system AP state broadcast. If that has not been
+	// delivered yet, the state is polled every second while there are
+	// listeners.
+	public void addStateListener(StateListener listener) {
+		stateTracker.addListener(listener);
+	}
+
+	public void removeStateListener(StateListener listener) {
+		stateTracker.removeListener(listener);
+	}
+
+	// onStateChanged is called by the state tracker before any listeners.
+	void onStateChanged(int oldState, int newState) {
+		if (newState == WIFI_AP_STATE_ENABLED) {
+			guessDevice();
+		}
+		observeEnabled(newState == WIFI_AP_STATE_ENABLED);
+		logEvent(SessionLog.EVENT_AP_STATE, 0, 0, newState, oldState);
+		invalidateConfiguration();
+		clientsFlight.invalidate();
+		synchronized (this) {
+			// The interface may have been recreated.
+			neighboursIfindex = 0;
+		}
+	}
+
+	// DEFAULT_CONFIGURATION_MAX_AGE is for how long, in milliseconds, the
+	// AP configuration is cached by default.
+	public static final long DEFAULT_CONFIGURATION_MAX_AGE = 30000;
+
+	// setConfigurationMaxAge sets for how long the AP configuration is
+	// cached, in milliseconds. Zero disables the cache.
+	public void setConfigurationMaxAge(long maxAge) {
+		configurationMaxAge = maxAge;
+		if (maxAge <= 0) {
+			invalidateConfiguration();
+		}
+	}
+
+	// invalidateConfiguration drops the cached AP configuration, so that
+	// the next read asks the system again.
+	public synchronized void invalidateConfiguration() {
+		cachedConfiguration = null;
+		configurationGeneration++;
+		configurationFlight.invalidate();
 	}
 
 	// getWifiApConfiguration returns the current Wi-Fi AP configuration.
 	// If an error occured invoking the method via reflection, null is
 	// returned.
+	//
+	// The configuration is cached, and dropped whenever the AP changes
+	// state, when setWifiApEnabled is given a configuration, or after
+	// the maximum age set via setConfigurationMaxAge. Until then, reads
+	// only copy it in memory. Every call returns a new copy, so changing
+	// it does not affect the cache nor other callers.
 	public WifiConfiguration getWifiApConfiguration() {
+		WifiConfiguration config = currentConfiguration();
+		if (config == null) {
+			return null;
+		}
+		return copyConfiguration(config);
+	}
+
+	// currentConfiguration returns the cached configuration if it is
+	// fresh enough, or reads it otherwise. Concurrent reads share a single
+	// reflective call. The result must not be handed out as is.
+	private WifiConfiguration currentConfiguration() {
+		long maxAge = configurationMaxAge;
+		if (maxAge > 0) {
+			long now = System.nanoTime() / 1000000;
+			synchronized (this) {
+				if (cachedConfiguration != null && now - configurationFetchedAt < maxAge) {
+					return cachedConfiguration;
+				}
+			}
+		}
+		return configurationFlight.call();
+	}
+
+	private WifiConfiguration loadWifiApConfiguration() {
+		int generation;
+		synchronized (this) {
+			generation = configurationGeneration;
+		}
+		long now = System.nanoTime() / 1000000;
+		WifiConfiguration config = readWifiApConfiguration();
+		if (config == null) {
+			return null;
+		}
+		synchronized (this) {
+			if (generation == configurationGeneration && configurationMaxAge > 0) {
+				cachedConfiguration = config;
+				configurationFetchedAt = now;
+			}
+		}
+		return config;
+	}
+
+	// copyConfiguration returns a deep copy of config by going through a
+	// Parcel, which is public API unlike the copy constructor.
+	private static WifiConfiguration copyConfiguration(WifiConfiguration config) {
+		Parcel p = Parcel.obtain();
+		try {
+			p.writeParcelable(config, 0);
+			p.setDataPosition(0);
+			return p.readParcelable(WifiConfiguration.class.getClassLoader());
+		} finally {
+			p.recycle();
+		}
+	}
+
+	private WifiConfiguration readWifiApConfiguration() {
 		Object result = invokeQuietly(getWifiApConfigurationMethod, wm);
 		if (result == null) {
 			return null;
@@ -241,13 +608,19 @@ final public class WifiApControl {
 	}
 
 	// setWifiApEnabled starts a Wi-Fi AP with the specified
-	// configuration. If one is already running, start using the new
-	// configuration. You should call WifiManager.setWifiEnabled(false)
+	// configuration, which the system also stores, or with the stored
+	// one if config is null. If one is already running, start using the
+	// new configuration. You should call WifiManager.setWifiEnabled(false)
 	// yourself before calling this method.
 	// If an error occured invoking the method via reflection, false is
 	// returned.
 	public boolean setWifiApEnabled(WifiConfiguration config, boolean enabled) {
+		device.iface.invalidate();
 		Object result = invokeQuietly(setWifiApEnabledMethod, wm, config, enabled);
+		if (config != null) {
+			// The system stores the configuration it is given.
+			invalidateConfiguration();
+		}
 		if (result == null) {
 			return false;
 		}
@@ -259,9 +632,11 @@ final public class WifiApControl {
 		return setWifiApEnabled(config, enabled);
 	}
 
-	// enable starts the currently configured Wi-Fi AP.
+	// enable starts the currently configured Wi-Fi AP. No configuration
+	// is passed, so the system uses the one it has stored, even if it
+	// changed since it was cached here.
 	public boolean enable() {
-		return setEnabled(getConfiguration(), true);
+		return setEnabled(null, true);
 	}
 
 	// disable stops any currently running Wi-Fi AP.
@@ -269,6 +644,127 @@ final public class WifiApControl {
 		return setEnabled(null, false);
 	}
 
+	// DEFAULT_TOGGLE_TIMEOUT is the deadline used by enableAsync and
+	// disableAsync when none is given, in milliseconds.
+	public static final long DEFAULT_TOGGLE_TIMEOUT = 10000;
+
+	// restoreWifi is whether enableAsync turned Wi-Fi off, so that
+	// disableAsync should turn it back on.
+	private volatile boolean restoreWifi;
+
+	// enableAsync starts the currently configured Wi-Fi AP without waiting
+	// for it. Unlike enable, it turns Wi-Fi off first if needed, and only
+	// requests the AP once the system reports Wi-Fi as disabled. The
+	// returned toggle completes as soon as the AP reaches STATE_ENABLED,
+	// and fails if it reaches STATE_FAILED or if timeoutMillis pass
+	// first. The listener may be null.
+	public ApToggle enableAsync(long timeoutMillis, ApToggle.Listener listener) {
+		final ApToggle toggle = new ApToggle(WIFI_AP_STATE_ENABLED, listener);
+		watchToggle(toggle, timeoutMillis);
+		if (!wm.isWifiEnabled()) {
+			toggle.skipHandoff();
+			requestToggle(toggle, null, true);
+			return toggle;
+		}
+		final BroadcastReceiver wifiOff = new BroadcastReceiver() {
+			@Override
+			public void onReceive(Context c, Intent intent) {
+				int s = intent.getIntExtra(WifiManager.EXTRA_WIFI_STATE,
+						WifiManager.WIFI_STATE_UNKNOWN);
+				if (s == WifiManager.WIFI_STATE_DISABLED && toggle.handoffDone()) {
+					requestToggle(toggle, null, true);
+				}
+			}
+		};
+		// Registered before turning Wi-Fi off, so that the broadcast
+		// cannot be missed. The sticky one says it is still on.
+		context.registerReceiver(wifiOff, new IntentFilter(WifiManager.WIFI_STATE_CHANGED_ACTION));
+		toggle.addCleanup(new Runnable() {
+			public void run() {
+				context.unregisterReceiver(wifiOff);
+			}
+		});
+		restoreWifi = true;
+		if (!wm.setWifiEnabled(false)) {
+			restoreWifi = false;
+			toggle.fail(getState(), new IllegalStateException("setWifiEnabled was not accepted"));
+		}
+		return toggle;
+	}
+
+	// requestToggle makes the setWifiApEnabled request of a toggle and
+	// checks whether the AP is already in the target state. A state of
+	// STATE_FAILED at this point may be from before the request, so it is
+	// left to the state listener to fail the toggle.
+	private void requestToggle(ApToggle toggle, WifiConfiguration config, boolean enabled) {
+		if (!setWifiApEnabled(config, enabled)) {
+			toggle.fail(getState(), new IllegalStateException("setWifiApEnabled was not accepted"));
+			return;
+		}
+		toggle.requestDone();
+		int state = getWifiApState();
+		if (state == toggle.getTargetState()) {
+			checkToggle(toggle, state);
+		}
+	}
+
+	public ApToggle enableAsync(ApToggle.Listener listener) {
+		return enableAsync(DEFAULT_TOGGLE_TIMEOUT, listener);
+	}
+
+	// disableAsync stops any currently running Wi-Fi AP without waiting
+	// for it. The returned toggle completes as soon as the AP reaches
+	// STATE_DISABLED, and fails if it reaches STATE_FAILED or if
+	// timeoutMillis pass first. If Wi-Fi was turned off by enableAsync, it
+	// is turned back on once the AP is disabled. The listener may be null.
+	public ApToggle disableAsync(long timeoutMillis, ApToggle.Listener listener) {
+		ApToggle toggle = new ApToggle(WIFI_AP_STATE_DISABLED, listener);
+		watchToggle(toggle, timeoutMillis);
+		toggle.skipHandoff();
+		requestToggle(toggle, null, false);
+		return toggle;
+	}
+
+	public ApToggle disableAsync(ApToggle.Listener listener) {
+		return disableAsync(DEFAULT_TOGGLE_TIMEOUT, listener);
+	}
+
+	// watchToggle makes the toggle follow the AP state until it finishes
+	// or until its deadline passes.
+	private void watchToggle(final ApToggle toggle, final long timeoutMillis) {
+		final StateListener stateListener = new StateListener() {
+			public void onStateChanged(int oldState, int newState) {
+				checkToggle(toggle, newState);
+			}
+		};
+		final Runnable deadline = new Runnable() {
+			public void run() {
+				toggle.fail(getState(), new TimeoutException("AP did not reach state "
+						+ toggle.getTargetState() + " within " + timeoutMillis + "ms"));
+			}
+		};
+		toggle.addCleanup(new Runnable() {
+			public void run() {
+				removeStateListener(stateListener);
+				stateTracker.removeCallbacks(deadline);
+			}
+		});
+		addStateListener(stateListener);
+		stateTracker.postDelayed(deadline, timeoutMillis);
+	}
+
+	private void checkToggle(ApToggle toggle, int state) {
+		if (state == toggle.getTargetState()) {
+			if (state == WIFI_AP_STATE_DISABLED && restoreWifi) {
+				restoreWifi = false;
+				wm.setWifiEnabled(true);
+			}
+			toggle.complete(state);
+		} else if (state == WIFI_AP_STATE_FAILED) {
+			toggle.fail(state, new IllegalStateException("AP reached STATE_FAILED"));
+		}
+	}
+
 	// getInet6Address returns the IPv6 address that the device has in its
 	// own Wi-Fi AP local network. Will return null if no Wi-Fi AP is
 	// currently enabled.
@@ -289,26 +785,24 @@ final public class WifiApControl {
 		return getInetAddress(Inet4Address.class);
 	}
 
+	// getAddresses returns all the IPv4 and IPv6 addresses that the device
+	// has in its own Wi-Fi AP local network, in a single lookup. Will
+	// return null if no Wi-Fi AP is currently enabled.
+	public List<InetAddress> getAddresses() {
+		if (!isEnabled()) {
+			return null;
+		}
+		try {
+			return new ArrayList<>(Arrays.asList(device.iface.get()));
+		} catch (IOException e) {
+			Log.e(TAG, "", e);
+		}
+		return new ArrayList<>();
+	}
 
 	private <T extends InetAddress> T getInetAddress(Class<T> addressType) {
 		try {
-			Enumeration<NetworkInterface> ifaces = NetworkInterface.getNetworkInterfaces();
-			while (ifaces.hasMoreElements()) {
-				NetworkInterface iface = ifaces.nextElement();
-
-				if (!iface.getName().equals(deviceName)) {
-					continue;
-				}
-
-				Enumeration<InetAddress> addrs = iface.getInetAddresses();
-				while (addrs.hasMoreElements()) {
-					InetAddress addr = addrs.nextElement();
-
-					if (addressType.isInstance(addr)) {
-						return addressType.cast(addr);
-					}
-				}
-			}
+			return device.iface.first(addressType);
 		} catch (IOException e) {
 			Log.e(TAG, "", e);
 		}
@@ -319,69 +813,683 @@ final public class WifiApControl {
 	public static class Client {
 
 		// ipAddr is the raw string of the IP Address client
-		public String ipAddr;
+		public final String ipAddr;
 
 		// hwAddr is the raw string of the MAC of the client
-		public String hwAddr;
+		public final String hwAddr;
+
+		// ARP_INCOMPLETE means that the kernel has not resolved the MAC
+		// of the client, or failed to. It may have left the network.
+		public static final int ARP_INCOMPLETE = 0;
+
+		// ARP_COMPLETE means that the MAC of the client was resolved.
+		// The entry may still be stale.
+		public static final int ARP_COMPLETE = 1;
+
+		// ARP_PERMANENT means that the entry was set up statically and
+		// never expires.
+		public static final int ARP_PERMANENT = 2;
+
+		// arpState is the state of the kernel ARP entry of the client,
+		// one of the ARP_ constants.
+		public int arpState;
+
+		public static final int FAMILY_IPV4 = 4;
+		public static final int FAMILY_IPV6 = 6;
+
+		// family is the address family of ipAddr, either FAMILY_IPV4
+		// or FAMILY_IPV6.
+		public final int family;
+
+		// Neighbour Unreachability Detection states of the kernel, as
+		// in linux/neighbour.h.
+		public static final int NUD_INCOMPLETE = NeighbourParser.NUD_INCOMPLETE;
+		public static final int NUD_REACHABLE  = NeighbourParser.NUD_REACHABLE;
+		public static final int NUD_STALE      = NeighbourParser.NUD_STALE;
+		public static final int NUD_DELAY      = NeighbourParser.NUD_DELAY;
+		public static final int NUD_PROBE      = NeighbourParser.NUD_PROBE;
+		public static final int NUD_FAILED     = NeighbourParser.NUD_FAILED;
+		public static final int NUD_NOARP      = NeighbourParser.NUD_NOARP;
+		public static final int NUD_PERMANENT  = NeighbourParser.NUD_PERMANENT;
+
+		// nudState is the NUD_ state of the kernel neighbour entry, or
+		// 0 if it is unknown because the client was read from
+		// /proc/net/arp.
+		public int nudState;
+
+		// lastConfirmed is when the kernel last confirmed that the
+		// client was reachable, and lastUsed is when the entry was last
+		// used, both in System.currentTimeMillis time. They are 0 if
+		// unknown.
+		public long lastConfirmed;
+		public long lastUsed;
+
+		// hostname and clientId are those sent by the client in its
+		// DHCP lease, and leaseExpiry is when that lease expires, in
+		// System.currentTimeMillis time or Long.MAX_VALUE if it never
+		// does. They are null and 0 if no lease is known.
+		public String hostname;
+		public String clientId;
+		public long leaseExpiry;
+
+		// device is the name of the network interface the client was
+		// found on.
+		public String device;
+
+		// packedIpAddr is ipAddr packed into an int like in
+		// ClientVisitor, or 0 if it is not an IPv4 address.
+		// packedHwAddr is hwAddr packed into a long like in
+		// ClientVisitor, or -1 if it is not a valid MAC.
+		//
+		// The addresses make up the identity of a client, so they
+		// cannot change. A client that moves to another IP address is
+		// a new Client object.
+		public final int packedIpAddr;
+		public final long packedHwAddr;
 
 		public Client(String ipAddr, String hwAddr) {
+			this(ipAddr, hwAddr, ARP_COMPLETE);
+		}
+
+		public Client(String ipAddr, String hwAddr, int arpState) {
 			this.ipAddr = ipAddr;
 			this.hwAddr = hwAddr;
+			this.arpState = arpState;
+			this.family = ipAddr.indexOf(':') >= 0 ? FAMILY_IPV6 : FAMILY_IPV4;
+			long ip = family == FAMILY_IPV4 ? Addresses.parseIpv4(ipAddr) : -1;
+			this.packedIpAddr = ip < 0 ? 0 : (int) ip;
+			this.packedHwAddr = Addresses.parseMac(hwAddr);
+		}
+
+		public Client(int packedIpAddr, long packedHwAddr, int arpState) {
+			this.ipAddr = Addresses.formatIpv4(packedIpAddr);
+			this.hwAddr = Addresses.formatMac(packedHwAddr);
+			this.arpState = arpState;
+			this.family = FAMILY_IPV4;
+			this.packedIpAddr = packedIpAddr;
+			this.packedHwAddr = packedHwAddr;
+		}
+
+		// Client returns a copy of c, which can be modified without
+		// affecting c.
+		public Client(Client c) {
+			this.ipAddr = c.ipAddr;
+			this.hwAddr = c.hwAddr;
+			this.arpState = c.arpState;
+			this.family = c.family;
+			this.nudState = c.nudState;
+			this.lastConfirmed = c.lastConfirmed;
+			this.lastUsed = c.lastUsed;
+			this.hostname = c.hostname;
+			this.clientId = c.clientId;
+			this.leaseExpiry = c.leaseExpiry;
+			this.device = c.device;
+			this.packedIpAddr = c.packedIpAddr;
+			this.packedHwAddr = c.packedHwAddr;
+		}
+
+		private boolean packedIpv4() {
+			return family == FAMILY_IPV4 && (packedIpAddr != 0 || ipAddr.equals("0.0.0.0"));
+		}
+
+		// equals reports whether o is a client with the same IP and MAC
+		// addresses. The packed forms are compared when available.
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Client)) {
+				return false;
+			}
+			Client c = (Client) o;
+			if (packedHwAddr >= 0 && c.packedHwAddr >= 0) {
+				if (packedHwAddr != c.packedHwAddr) {
+					return false;
+				}
+			} else if (!hwAddr.equals(c.hwAddr)) {
+				return false;
+			}
+			if (packedIpv4() && c.packedIpv4()) {
+				return packedIpAddr == c.packedIpAddr;
+			}
+			return ipAddr.equals(c.ipAddr);
+		}
+
+		@Override
+		public int hashCode() {
+			int h = packedHwAddr >= 0
+					? (int) (packedHwAddr ^ (packedHwAddr >>> 32))
+					: hwAddr.hashCode();
+			return 31 * h + (packedIpv4() ? packedIpAddr : ipAddr.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return ipAddr + " " + hwAddr;
+		}
+
+		// formatIpAddr returns the text form of an IPv4 address packed
+		// like in ClientVisitor.
+		public static String formatIpAddr(int packedIpAddr) {
+			return Addresses.formatIpv4(packedIpAddr);
+		}
+
+		// formatHwAddr returns the text form of a MAC packed like in
+		// ClientVisitor.
+		public static String formatHwAddr(long packedHwAddr) {
+			return Addresses.formatMac(packedHwAddr);
+		}
+	}
+
+	// nudArpState maps a NUD state to one of the Client.ARP_ constants,
+	// like the kernel does for /proc/net/arp.
+	static int nudArpState(int nudState) {
+		if ((nudState & NeighbourParser.NUD_PERMANENT) != 0) {
+			return Client.ARP_PERMANENT;
+		}
+		if ((nudState & (NeighbourParser.NUD_REACHABLE | NeighbourParser.NUD_NOARP
+				| NeighbourParser.NUD_STALE | NeighbourParser.NUD_DELAY
+				| NeighbourParser.NUD_PROBE)) != 0) {
+			return Client.ARP_COMPLETE;
+		}
+		return Client.ARP_INCOMPLETE;
+	}
+
+	// NeighbourCollector builds the clients found in a netlink dump, for
+	// the interfaces with the given indexes and names.
+	private static final class NeighbourCollector implements NeighbourParser.Visitor {
+
+		final List<Client> result = new ArrayList<>();
+		final long now = System.currentTimeMillis();
+		final int[] ifindexes;
+		final String[] devices;
+
+		NeighbourCollector(int[] ifindexes, String[] devices) {
+			this.ifindexes = ifindexes;
+			this.devices = devices;
+		}
+
+		public void visit(int ifindex, int family, byte[] addr, int addrOff, int addrLen,
+				long hwAddr, int nudState, long confirmedAgo, long usedAgo) {
+			if ((nudState & NeighbourParser.NUD_NOARP) != 0) {
+				// multicast and broadcast entries
+				return;
+			}
+			int device = 0;
+			while (device < ifindexes.length && ifindexes[device] != ifindex) {
+				device++;
+			}
+			if (device == ifindexes.length) {
+				return;
+			}
+			if (hwAddr < 0) {
+				hwAddr = 0;
+			}
+			Client c;
+			if (family == NeighbourParser.AF_INET) {
+				c = new Client((addr[addrOff] & 0xff) << 24
+						| (addr[addrOff + 1] & 0xff) << 16
+						| (addr[addrOff + 2] & 0xff) << 8
+						| (addr[addrOff + 3] & 0xff),
+						hwAddr, nudArpState(nudState));
+			} else {
+				byte[] ip = new byte[addrLen];
+				System.arraycopy(addr, addrOff, ip, 0, addrLen);
+				String ipAddr;
+				try {
+					// Link-local addresses are useless without
+					// the interface they belong to.
+					boolean linkLocal = ip[0] == (byte) 0xfe && (ip[1] & 0xc0) == 0x80;
+					ipAddr = Inet6Address.getByAddress(null, ip,
+							linkLocal ? ifindex : 0).getHostAddress();
+				} catch (UnknownHostException e) {
+					return;
+				}
+				c = new Client(ipAddr, Addresses.formatMac(hwAddr), nudArpState(nudState));
+			}
+			c.device = devices[device];
+			c.nudState = nudState;
+			if (confirmedAgo >= 0) {
+				c.lastConfirmed = now - confirmedAgo;
+			}
+			if (usedAgo >= 0) {
+				c.lastUsed = now - usedAgo;
+			}
+			result.add(c);
+		}
+	}
+
+	// neighbourReader returns the netlink reader, or null if it cannot be
+	// used. It also looks up neighboursIfindex if needed, returning null
+	// if the interface does not exist right now. Must hold this.
+	private NetlinkNeighbourReader neighbourReader() {
+		if (neighboursFailed) {
+			return null;
+		}
+		if (neighboursIfindex == 0) {
+			try {
+				neighboursIfindex = TetherInterfaces.ifindex(TetherInterfaces.SYS_NET, device.name);
+			} catch (IOException e) {
+				Log.w(TAG, "Could not find the interface index - falling back to /proc/net/arp", e);
+				return null;
+			}
 		}
+		if (neighbours == null) {
+			neighbours = new NetlinkNeighbourReader(0);
+		}
+		return neighbours;
+	}
+
+	// readNeighbours returns the clients in the kernel neighbour table via
+	// netlink, or null if it is not available.
+	private List<Client> readNeighbours() {
+		NetlinkNeighbourReader reader;
+		int ifindex;
+		String name;
+		synchronized (this) {
+			reader = neighbourReader();
+			ifindex = neighboursIfindex;
+			name = device.name;
+		}
+		if (reader == null) {
+			return null;
+		}
+		NeighbourCollector collector = new NeighbourCollector(
+				new int[] { ifindex }, new String[] { name });
+		if (!dumpNeighbours(reader, collector)) {
+			return null;
+		}
+		if (collector.result.isEmpty()) {
+			forgetIfindex(ifindex);
+		}
+		return collector.result;
+	}
+
+	// forgetIfindex makes the next read look up the interface index again,
+	// unless it has changed already. Called when nothing at all was found
+	// on the interface, as its index may be stale.
+	private synchronized void forgetIfindex(int ifindex) {
+		if (neighboursIfindex == ifindex) {
+			neighboursIfindex = 0;
+		}
+	}
+
+	// dumpNeighbours reads the whole neighbour table into visitor, and
+	// returns false if it could not. Only a denied access disables netlink
+	// for good; other errors just fall back to /proc/net/arp this time.
+	private boolean dumpNeighbours(NetlinkNeighbourReader reader, NeighbourParser.Visitor visitor) {
+		Metrics m = metrics;
+		long start = m != null ? System.nanoTime() : 0;
+		try {
+			reader.read(visitor);
+		} catch (IOException e) {
+			if (m != null) {
+				m.record(Metrics.OP_NEIGHBOUR_DUMP, start, true);
+			}
+			Log.w(TAG, "Netlink neighbour dump failed - falling back to /proc/net/arp", e);
+			if (NetlinkNeighbourReader.isDenied(e)) {
+				synchronized (this) {
+					neighboursFailed = true;
+				}
+			}
+			return false;
+		}
+		if (m != null) {
+			m.record(Metrics.OP_NEIGHBOUR_DUMP, start, false);
+		}
+		return true;
+	}
+
+	// parseArp runs parser.parse, recording metrics if enabled.
+	private void parseArp(ArpParser parser, ArpParser.Visitor visitor) throws IOException {
+		try {
+			Metrics m = metrics;
+			if (m == null) {
+				parser.parse(visitor);
+				return;
+			}
+			long start = System.nanoTime();
+			synchronized (parser) {
+				int accepted;
+				try {
+					accepted = parser.parse(visitor);
+				} catch (IOException e) {
+					m.record(Metrics.OP_ARP_PARSE, start, true);
+					throw e;
+				}
+				m.record(Metrics.OP_ARP_PARSE, start, false);
+				m.recordArpRows(parser.lastRows(), accepted);
+			}
+		} finally {
+			closeIfStale(parser);
+		}
+	}
+
+	// closeIfStale closes parser if it was replaced while in use. Its
+	// owner closes it when replacing it, but a parse that was already
+	// under way reopens the file, which would then never be closed.
+	private void closeIfStale(ArpParser parser) {
+		synchronized (this) {
+			if (parser == device.arp || parser == tetherArp) {
+				return;
+			}
+		}
+		parser.close();
+	}
+
+	// arpState maps the flags of an ARP entry to one of the Client.ARP_
+	// constants.
+	static int arpState(int flags) {
+		if ((flags & ArpParser.ATF_PERM) != 0) {
+			return Client.ARP_PERMANENT;
+		}
+		if ((flags & ArpParser.ATF_COM) != 0) {
+			return Client.ARP_COMPLETE;
+		}
+		return Client.ARP_INCOMPLETE;
 	}
 
 	// getClients returns a list of all clients connected to the network.
 	// Since the information is pulled from ARP, which is cached for up to
 	// five minutes, this method may yield clients that disconnected
-	// minutes ago.
+	// minutes ago. Client.arpState tells which entries the kernel could
+	// not resolve.
+	//
+	// On 5.0 or later, the kernel neighbour table is dumped via netlink
+	// if possible, which includes IPv6 clients and the NUD state of each
+	// entry. Otherwise, only /proc/net/arp is used.
+	//
+	// If the DHCP leases of dnsmasq can be read, the hostname, client ID
+	// and lease expiry of each client are filled in from them.
+	//
+	// Where the hostapd control socket is accessible, HostapdMonitor can
+	// narrow this down to the stations that are associated right now.
+	//
+	// Concurrent calls share a single read, but every caller gets its own
+	// copies of the clients.
 	public List<Client> getClients() {
 		if (!isEnabled()) {
 			return null;
 		}
-		List<Client> result = new ArrayList<>();
+		return copyClients(clientsFlight.call());
+	}
 
-		// Basic sanity checks
-		Pattern macPattern = Pattern.compile("..:..:..:..:..:..");
+	// copyClients copies a list of clients from a shared read, so that
+	// each caller of getClients gets its own list and Client objects.
+	private static List<Client> copyClients(List<Client> clients) {
+		List<Client> result = new ArrayList<>(clients.size());
+		for (Client c : clients) {
+			result.add(new Client(c));
+		}
+		return result;
+	}
+
+	private List<Client> readClients() {
+		List<Client> result = readNeighbours();
+		if (result == null) {
+			final List<Client> arpClients = new ArrayList<>();
+			final Device d = device;
+			try {
+				parseArp(d.arp, new ArpParser.Visitor() {
+					public void visit(int device, int ipAddr, long hwAddr, int flags) {
+						Client c = new Client(ipAddr, hwAddr, arpState(flags));
+						c.device = d.name;
+						arpClients.add(c);
+					}
+				});
+			} catch (IOException e) {
+				Log.e(TAG, "", e);
+			}
+			result = arpClients;
+		}
+		joinLeases(result);
+		return result;
+	}
 
-		BufferedReader br = null;
+	// joinLeases reloads the DHCP leases if needed and fills in the lease
+	// fields of every client that has one.
+	private void joinLeases(List<Client> clients) {
 		try {
-			br = new BufferedReader(new FileReader("/proc/net/arp"));
-			String line;
-			while ((line = br.readLine()) != null) {
-				String[] parts = line.split(" +");
-				if (parts.length < 6) {
-					continue;
-				}
+			leases.reload();
+		} catch (IOException e) {
+			// keep using what was read before
+			Log.e(TAG, "", e);
+		}
+		if (leases.size() == 0) {
+			return;
+		}
+		for (Client c : clients) {
+			if (c.packedHwAddr < 0) {
+				continue;
+			}
+			LeaseIndex.Lease l = leases.get(c.packedHwAddr);
+			if (l == null) {
+				continue;
+			}
+			c.hostname = l.hostname;
+			c.clientId = l.clientId;
+			c.leaseExpiry = l.expiry;
+		}
+	}
 
-				String ipAddr = parts[0];
-				String hwAddr = parts[3];
-				String device = parts[5];
+	// getTetherInterfaces returns the names of the network interfaces that
+	// may be serving clients: the Wi-Fi AP and any other interface named
+	// like one, as well as any USB or Bluetooth tethering. The Wi-Fi
+	// station and Wi-Fi Direct interfaces are left out. They are found by
+	// scanning /sys/class/net each time.
+	public List<String> getTetherInterfaces() {
+		return TetherInterfaces.scan(TetherInterfaces.SYS_NET, device.name);
+	}
 
-				if (!device.equals(deviceName)) {
-					continue;
-				}
+	// getClientsByInterface is like getClients, but for all of the
+	// interfaces that getTetherInterfaces returns, whether or not the
+	// Wi-Fi AP is enabled. The neighbour table is read only once and split
+	// across them, so this is much cheaper than reading it per interface.
+	// Every interface is in the map, even those without clients.
+	public Map<String, List<Client>> getClientsByInterface() {
+		List<String> names = getTetherInterfaces();
+		Map<String, List<Client>> result = new LinkedHashMap<>();
+		for (String name : names) {
+			result.put(name, new ArrayList<Client>());
+		}
+		if (names.isEmpty()) {
+			return result;
+		}
+		String[] devices = names.toArray(new String[names.size()]);
+		List<Client> clients = readAllNeighbours(devices);
+		if (clients == null) {
+			clients = readAllArp(devices);
+		}
+		joinLeases(clients);
+		for (Client c : clients) {
+			result.get(c.device).add(c);
+		}
+		return result;
+	}
 
-				if (!macPattern.matcher(parts[3]).find()) {
-					continue;
-				}
+	private List<Client> readAllNeighbours(String[] devices) {
+		NetlinkNeighbourReader reader;
+		synchronized (this) {
+			if (neighboursFailed) {
+				return null;
+			}
+			if (neighbours == null) {
+				neighbours = new NetlinkNeighbourReader(0);
+			}
+			reader = neighbours;
+		}
+		int[] ifindexes = new int[devices.length];
+		for (int i = 0; i < devices.length; i++) {
+			try {
+				ifindexes[i] = TetherInterfaces.ifindex(TetherInterfaces.SYS_NET, devices[i]);
+			} catch (IOException e) {
+				// gone since the scan
+				ifindexes[i] = -1;
+			}
+		}
+		NeighbourCollector collector = new NeighbourCollector(ifindexes, devices);
+		if (!dumpNeighbours(reader, collector)) {
+			return null;
+		}
+		return collector.result;
+	}
 
-				result.add(new Client(ipAddr, hwAddr));
+	// tetherArp is kept open across calls to getClientsByInterface for as
+	// long as the set of interfaces does not change.
+	private ArpParser tetherArp;
+	private String[] tetherArpDevices;
+
+	private List<Client> readAllArp(final String[] devices) {
+		ArpParser parser;
+		synchronized (this) {
+			if (tetherArp == null || !Arrays.equals(devices, tetherArpDevices)) {
+				if (tetherArp != null) {
+					tetherArp.close();
+				}
+				tetherArp = new ArpParser(ArpParser.ARP_PATH, devices);
+				tetherArpDevices = devices;
 			}
+			parser = tetherArp;
+		}
+		final List<Client> result = new ArrayList<>();
+		try {
+			parseArp(parser, new ArpParser.Visitor() {
+				public void visit(int device, int ipAddr, long hwAddr, int flags) {
+					Client c = new Client(ipAddr, hwAddr, arpState(flags));
+					c.device = devices[device];
+					result.add(c);
+				}
+			});
 		} catch (IOException e) {
 			Log.e(TAG, "", e);
-		} finally {
-			try {
-				if (br != null) {
-					br.close();
+		}
+		return result;
+	}
+
+	// ClientVisitor is an interface to walk the clients connected to the
+	// network via visitClients without allocating any objects.
+	public interface ClientVisitor {
+
+		// visitClient is called once per client. ipAddr holds the IPv4
+		// address in big-endian order, so 192.168.43.1 is 0xc0a82b01.
+		// hwAddr holds the MAC in the lower 48 bits, also in
+		// big-endian order. arpState is one of the Client.ARP_
+		// constants.
+		void visitClient(int ipAddr, long hwAddr, int arpState);
+	}
+
+	private static final class VisitorAdapter implements ArpParser.Visitor {
+
+		ClientVisitor visitor;
+
+		public void visit(int device, int ipAddr, long hwAddr, int flags) {
+			visitor.visitClient(ipAddr, hwAddr, arpState(flags));
+		}
+	}
+
+	// NeighbourVisitorAdapter passes the IPv4 entries of a netlink dump on
+	// a single interface to a ClientVisitor.
+	private static final class NeighbourVisitorAdapter implements NeighbourParser.Visitor {
+
+		ClientVisitor visitor;
+		int ifindex;
+
+		// visited counts the clients passed to the visitor.
+		int visited;
+
+		public void visit(int ifindex, int family, byte[] addr, int addrOff, int addrLen,
+				long hwAddr, int nudState, long confirmedAgo, long usedAgo) {
+			if (ifindex != this.ifindex || family != NeighbourParser.AF_INET
+					|| (nudState & NeighbourParser.NUD_NOARP) != 0) {
+				return;
+			}
+			visited++;
+			visitor.visitClient((addr[addrOff] & 0xff) << 24
+					| (addr[addrOff + 1] & 0xff) << 16
+					| (addr[addrOff + 2] & 0xff) << 8
+					| (addr[addrOff + 3] & 0xff),
+					hwAddr < 0 ? 0 : hwAddr, nudArpState(nudState));
+		}
+	}
+
+	// visitClients is like getClients, but it passes each client to the
+	// visitor in its packed form instead of building a list. Like
+	// getClients, it reads the kernel neighbour table via netlink if
+	// possible and /proc/net/arp otherwise, but only IPv4 clients are
+	// visited. Once the table has been read once, it barely allocates.
+	// Returns false if no Wi-Fi AP is currently enabled or if the table
+	// could not be read. A netlink dump that fails after some clients
+	// were visited does not fall back to /proc/net/arp, as the visitor
+	// would see those clients twice; false is returned instead.
+	public boolean visitClients(ClientVisitor visitor) {
+		if (!isEnabled()) {
+			return false;
+		}
+		NetlinkNeighbourReader reader;
+		int ifindex;
+		synchronized (this) {
+			reader = neighbourReader();
+			ifindex = neighboursIfindex;
+		}
+		if (reader != null) {
+			synchronized (neighbourAdapter) {
+				neighbourAdapter.visitor = visitor;
+				neighbourAdapter.ifindex = ifindex;
+				neighbourAdapter.visited = 0;
+				try {
+					if (dumpNeighbours(reader, neighbourAdapter)) {
+						return true;
+					}
+					if (neighbourAdapter.visited > 0) {
+						return false;
+					}
+				} finally {
+					neighbourAdapter.visitor = null;
 				}
+			}
+		}
+		synchronized (visitorAdapter) {
+			visitorAdapter.visitor = visitor;
+			try {
+				parseArp(device.arp, visitorAdapter);
 			} catch (IOException e) {
 				Log.e(TAG, "", e);
+				return false;
+			} finally {
+				visitorAdapter.visitor = null;
 			}
 		}
+		return true;
+	}
 
-		return result;
+	// snapshot gathers the state, configuration and addresses of the
+	// Wi-Fi AP in one pass, and optionally its clients. It makes one call
+	// for the state and one for the configuration, and only looks up the
+	// interface and reads the clients if the AP is enabled. This is
+	// cheaper than calling each of the getters on their own, since those
+	// check the state again each time.
+	public ApSnapshot snapshot(boolean includeClients) {
+		long time = System.currentTimeMillis();
+		int state = getState();
+		WifiConfiguration config = getWifiApConfiguration();
+		InetAddress[] addrs = NO_ADDRESSES;
+		List<Client> clients = null;
+		if (state == WIFI_AP_STATE_ENABLED) {
+			try {
+				addrs = device.iface.get();
+			} catch (IOException e) {
+				Log.e(TAG, "", e);
+			}
+			if (includeClients) {
+				clients = copyClients(clientsFlight.call());
+			}
+		}
+		return new ApSnapshot(time, state, config, addrs, clients);
 	}
 
+	private static final InetAddress[] NO_ADDRESSES = new InetAddress[0];
+
 	// ReachableClientListener is an interface to collect the results
 	// provided by getReachableClients via callbacks.
 	public interface ReachableClientListener {
@@ -395,45 +1503,290 @@ final public class WifiApControl {
 		void onComplete();
 	}
 
+	// PROBE_ISREACHABLE probes each client with InetAddress.isReachable,
+	// blocking one of a bounded set of threads per probe.
+	public static final int PROBE_ISREACHABLE = 0;
+
+	// PROBE_NIO probes all clients from a single thread, with non-blocking
+	// TCP connects to common ports and a UDP datagram to the echo port. A
+	// client counts as reachable if it answers in any way, even if it is
+	// just to refuse the connection.
+	public static final int PROBE_NIO = 1;
+
+	// PROBE_KERNEL_FIRST can be combined with any of the other PROBE_
+	// modes. Clients whose state is already known from the kernel
+	// neighbour table, or whose DHCP lease has expired, are answered
+	// without any network I/O, and only the rest are actively probed.
+	public static final int PROBE_KERNEL_FIRST = 1 << 8;
+
+	// kernelReachable tells whether the kernel state of a client is enough
+	// to know if it is reachable: 1 if it is, 0 if it is not, and -1 if it
+	// needs to be probed. A definite NUD state wins, since a client may
+	// keep using its address for a while after its DHCP lease expired.
+	// Otherwise, an expired lease means that the client is gone.
+	private static int kernelReachable(Client c, long now) {
+		if ((c.nudState & (Client.NUD_REACHABLE | Client.NUD_PERMANENT)) != 0) {
+			return 1;
+		}
+		if ((c.nudState & (Client.NUD_INCOMPLETE | Client.NUD_FAILED)) != 0) {
+			return 0;
+		}
+		if (c.leaseExpiry != 0 && c.leaseExpiry <= now) {
+			return 0;
+		}
+		if (c.nudState == 0 && c.arpState == Client.ARP_INCOMPLETE) {
+			return 0;
+		}
+		return -1;
+	}
+
+	// setReachabilityTtl sets for how long the result of a probe is reused
+	// by getReachableClients, in milliseconds. The default is 5 seconds,
+	// and zero always probes again.
+	public void setReachabilityTtl(long ttl) {
+		reachability.setTtl(ttl);
+	}
+
+	// setProbeThreads sets how many reachability probes may run at once
+	// with PROBE_ISREACHABLE. The default is 8.
+	public void setProbeThreads(int threads) {
+		probes.setThreads(threads);
+	}
+
 	// getReachableClients fetches the clients connected to the network
 	// much like getClients, but only those which are reachable. Since
 	// checking for reachability requires network I/O, the reachable
 	// clients are returned via callbacks. All the clients are returned
 	// like in getClients so that the callback returns a subset of the
 	// same objects.
-	public List<Client> getReachableClients(final int timeout,
+	//
+	// Probes run on a bounded set of threads shared by all calls. If a
+	// client is still being probed by an earlier call, both calls share
+	// the result of that one probe.
+	public List<Client> getReachableClients(int timeout,
+			ReachableClientListener listener) {
+		return getReachableClients(timeout, PROBE_ISREACHABLE, listener);
+	}
+
+	// getReachableClients is like getReachableClients(int,
+	// ReachableClientListener), but lets the caller choose how clients are
+	// probed via one of the PROBE_ constants.
+	//
+	// Probe results are reused for a while, see setReachabilityTtl. The
+	// round-trip time of each client is tracked too, so that clients that
+	// usually answer quickly are probed with a shorter timeout than the
+	// given one, which is only the maximum.
+	public List<Client> getReachableClients(int timeout, int probeMode,
 			final ReachableClientListener listener) {
+		ReachabilitySweep sweep = sweepReachableClients(timeout, probeMode, 0, 0,
+				new ReachabilitySweep.Listener() {
+			public void onReachableClient(Client c) {
+				listener.onReachableClient(c);
+			}
+			public void onTimeout(Client c) { }
+			public void onComplete() {
+				listener.onComplete();
+			}
+		});
+		if (sweep == null) {
+			return null;
+		}
+		return sweep.getClients();
+	}
+
+	// sweepReachableClients is like getReachableClients, but returns a
+	// handle on the sweep that can be cancelled. The sweep also ends
+	// after deadline milliseconds, or as soon as maxReachable reachable
+	// clients have been found. Either can be zero to not set a limit.
+	// Clients not checked by the time the sweep ends are passed to
+	// onTimeout. Returns null if no Wi-Fi AP is currently enabled.
+	public ReachabilitySweep sweepReachableClients(final int timeout, int probeMode,
+			long deadline, int maxReachable, ReachabilitySweep.Listener listener) {
+		final boolean kernelFirst = (probeMode & PROBE_KERNEL_FIRST) != 0;
+		final Prober prober;
+		int window;
+		switch (probeMode & ~PROBE_KERNEL_FIRST) {
+		case PROBE_ISREACHABLE:
+			prober = probes;
+			window = ReachabilitySweep.DEFAULT_WINDOW;
+			break;
+		case PROBE_NIO:
+			// one selector for all probes, so keep them all
+			// in flight at once
+			prober = nioProbes;
+			window = ReachabilitySweep.UNBOUNDED_WINDOW;
+			break;
+		default:
+			throw new IllegalArgumentException("unknown probe mode: " + probeMode);
+		}
 		List<Client> clients = getClients();
 		if (clients == null) {
 			return null;
 		}
-		final CountDownLatch latch = new CountDownLatch(clients.size());
-		ExecutorService es = Executors.newCachedThreadPool();
-		for (final Client c : clients) {
-			es.submit(new Runnable() {
+		final long now = ReachabilityCache.now();
+		final long wallNow = System.currentTimeMillis();
+		reachability.prune(now);
+		ReachabilitySweep.Checker checker = new ReachabilitySweep.Checker() {
+			public void check(ReachabilitySweep sweep, int i, Client c) {
+				checkReachable(sweep, i, c, prober, kernelFirst, timeout, now, wallNow);
+			}
+		};
+		final ReachabilitySweep sweep = new ReachabilitySweep(clients, maxReachable, listener,
+				checker, window);
+		if (deadline > 0) {
+			final Runnable onDeadline = new Runnable() {
 				public void run() {
-					try {
-						InetAddress ip = InetAddress.getByName(c.ipAddr);
-						if (ip.isReachable(timeout)) {
-							listener.onReachableClient(c);
-						}
-					} catch (IOException e) {
-						Log.e(TAG, "", e);
-					}
-					latch.countDown();
+					sweep.end();
+				}
+			};
+			sweep.setOnFinish(new Runnable() {
+				public void run() {
+					stateTracker.removeCallbacks(onDeadline);
 				}
 			});
+			stateTracker.postDelayed(onDeadline, deadline);
 		}
-		new Thread() {
-			public void run() {
-				try {
-					latch.await();
-				} catch (InterruptedException e) {
-					Log.e(TAG, "", e);
+		sweep.start();
+		return sweep;
+	}
+
+	// checkReachable answers the i-th client of a sweep from the kernel or
+	// the cache if possible, and probes it otherwise.
+	private void checkReachable(final ReachabilitySweep sweep, final int i, final Client c,
+			Prober prober, boolean kernelFirst, final int maxTimeout, long now, long wallNow) {
+		final String key = c.hwAddr + " " + c.ipAddr;
+		int known = kernelFirst ? kernelReachable(c, wallNow) : -1;
+		if (known < 0) {
+			known = reachability.cached(key, now);
+		}
+		if (known >= 0) {
+			sweep.report(i, known == 1);
+			return;
+		}
+		final int clientTimeout = reachability.timeout(key, maxTimeout);
+		prober.probe(c.ipAddr, clientTimeout, new Prober.Callback() {
+			public void onProbeResult(boolean reachable, long rtt) {
+				Metrics m = metrics;
+				if (m != null) {
+					m.recordMicros(Metrics.OP_PROBE, rtt * 1000, false);
+					m.recordProbe(reachable);
 				}
-				listener.onComplete();
+				if (reachability.record(key, reachable, rtt, clientTimeout,
+						maxTimeout, ReachabilityCache.now())) {
+					logEvent(reachable ? SessionLog.EVENT_REACHABLE : SessionLog.EVENT_UNREACHABLE,
+							c.packedHwAddr, c.packedIpAddr, c.nudState, 0);
+				}
+				sweep.report(i, reachable);
+			}
+		});
+	}
+
+	// DiscoveryListener is an interface to receive the result of
+	// discoverClients.
+	public interface DiscoveryListener {
+
+		// onDiscoveryComplete is called from a background thread with
+		// all the clients found after the sweep, like getClients would
+		// return them, and those among them that were not known
+		// before it.
+		void onDiscoveryComplete(List<Client> clients, List<Client> discovered);
+	}
+
+	// setDiscoveryRate sets how many probes per second discoverClients
+	// may send. The default is 2000.
+	public void setDiscoveryRate(int probesPerSecond) {
+		if (probesPerSecond <= 0) {
+			throw new IllegalArgumentException("rate must be positive");
+		}
+		discoveryRate = probesPerSecond;
+	}
+
+	// discoverClients finds the clients that have joined the network but
+	// are not in the neighbour table yet, because they have not sent
+	// anything. Every host in the subnet of getInet4Address is probed,
+	// which makes the kernel resolve the MAC of those that are present.
+	// Subnets wider than a /24 are narrowed to the /24 around our own
+	// address, which is what Android tethering hands out.
+	// After the last probe and timeout more milliseconds, the neighbour
+	// table is read again and the result is passed to the listener.
+	//
+	// If a discovery is already running, the listener receives its result
+	// instead, and timeout is ignored. Returns false if no Wi-Fi AP is
+	// currently enabled or it has no IPv4 address.
+	public boolean discoverClients(final int timeout, DiscoveryListener listener) {
+		final Inet4Address addr = getInet4Address();
+		if (addr == null) {
+			return false;
+		}
+		synchronized (discoveryListeners) {
+			discoveryListeners.add(listener);
+			if (discovery != null) {
+				return true;
 			}
-		}.start();
-		return clients;
+			discovery = new Thread("WifiApControl-discovery") {
+				@Override
+				public void run() {
+					runDiscovery(addr, timeout);
+				}
+			};
+			discovery.setDaemon(true);
+			discovery.start();
+		}
+		return true;
+	}
+
+	// DEFAULT_PREFIX is what tethering uses, for when the interface cannot
+	// tell.
+	private static final int DEFAULT_PREFIX = 24;
+
+	@TargetApi(Build.VERSION_CODES.GINGERBREAD)
+	private int prefixLength(Inet4Address addr) {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD) {
+			return DEFAULT_PREFIX;
+		}
+		try {
+			int len = device.iface.prefixLength(addr);
+			if (len > 0) {
+				return len;
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "", e);
+		}
+		return DEFAULT_PREFIX;
+	}
+
+	private void runDiscovery(Inet4Address addr, int timeout) {
+		LongTable<Client> known = new LongTable<>();
+		for (Client c : readClients()) {
+			if (c.arpState != Client.ARP_INCOMPLETE) {
+				known.put(c.packedHwAddr, c);
+			}
+		}
+		byte[] b = addr.getAddress();
+		int packed = (b[0] & 0xff) << 24 | (b[1] & 0xff) << 16 | (b[2] & 0xff) << 8 | (b[3] & 0xff);
+		try {
+			SubnetSweeper.sweep(packed, prefixLength(addr), discoveryRate);
+			Thread.sleep(timeout);
+		} catch (IOException e) {
+			Log.e(TAG, "", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		List<Client> clients = readClients();
+		List<Client> discovered = new ArrayList<>();
+		for (Client c : clients) {
+			if (c.arpState != Client.ARP_INCOMPLETE && !known.containsKey(c.packedHwAddr)) {
+				discovered.add(c);
+			}
+		}
+		List<DiscoveryListener> listeners;
+		synchronized (discoveryListeners) {
+			listeners = new ArrayList<>(discoveryListeners);
+			discoveryListeners.clear();
+			discovery = null;
+		}
+		for (DiscoveryListener l : listeners) {
+			l.onDiscoveryComplete(clients, discovered);
+		}
 	}
 }
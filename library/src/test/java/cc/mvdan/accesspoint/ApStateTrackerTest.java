@@ -0,0 +1,129 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Intent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class ApStateTrackerTest {
+
+	private static final int DISABLED = WifiApControl.WIFI_AP_STATE_DISABLED;
+	private static final int ENABLING = WifiApControl.WIFI_AP_STATE_ENABLING;
+	private static final int ENABLED = WifiApControl.WIFI_AP_STATE_ENABLED;
+
+	private final List<String> events = new ArrayList<>();
+	private ApStateTracker tracker;
+
+	@Before
+	public void setUp() {
+		// run posted listeners only when flushed
+		Robolectric.getForegroundThreadScheduler().pause();
+		tracker = new ApStateTracker(RuntimeEnvironment.application, new ApStateTracker.Host() {
+			public void onStateChanged(int oldState, int newState) {
+				events.add("host " + oldState + " " + newState);
+			}
+
+			public void pollState() {
+			}
+		});
+		tracker.addListener(new WifiApControl.StateListener() {
+			public void onStateChanged(int oldState, int newState) {
+				events.add("listener " + oldState + " " + newState);
+			}
+		});
+	}
+
+	private static Intent broadcast(int state) {
+		return new Intent(ApStateTracker.WIFI_AP_STATE_CHANGED_ACTION)
+				.putExtra(ApStateTracker.EXTRA_WIFI_AP_STATE, state);
+	}
+
+	@Test
+	public void pollUntilBroadcast() {
+		tracker.observe(ENABLED);
+		// not trusted until a broadcast arrives
+		assertEquals(-1, tracker.get());
+		tracker.onReceive(RuntimeEnvironment.application, broadcast(DISABLED));
+		assertEquals(DISABLED, tracker.get());
+		// a stale poll must not undo the broadcast
+		tracker.observe(ENABLED);
+		assertEquals(DISABLED, tracker.get());
+		Robolectric.flushForegroundThreadScheduler();
+		assertEquals(Arrays.asList(
+				"host -1 13",
+				"host 13 11",
+				"listener 13 11"), events);
+	}
+
+	@Test
+	public void listenersInOrder() {
+		tracker.onReceive(RuntimeEnvironment.application, broadcast(DISABLED));
+		tracker.onReceive(RuntimeEnvironment.application, broadcast(ENABLING));
+		tracker.onReceive(RuntimeEnvironment.application, broadcast(ENABLED));
+		// listeners only run on the main thread
+		assertEquals(Arrays.asList(
+				"host -1 11",
+				"host 11 12",
+				"host 12 13"), events);
+		Robolectric.flushForegroundThreadScheduler();
+		assertEquals(Arrays.asList(
+				"host -1 11",
+				"host 11 12",
+				"host 12 13",
+				"listener 11 12",
+				"listener 12 13"), events);
+	}
+
+	@Test
+	public void stickyOnStart() {
+		RuntimeEnvironment.application.sendStickyBroadcast(broadcast(ENABLED));
+		tracker.start();
+		assertEquals(ENABLED, tracker.get());
+		tracker.stop();
+	}
+
+	@Test
+	public void untrustedAfterStop() {
+		RuntimeEnvironment.application.sendStickyBroadcast(broadcast(ENABLED));
+		tracker.start();
+		tracker.stop();
+		// callers must go back to reflection
+		assertEquals(-1, tracker.get());
+		tracker.observe(DISABLED);
+		assertEquals(-1, tracker.get());
+		Robolectric.flushForegroundThreadScheduler();
+		assertEquals(Arrays.asList(
+				"host -1 13",
+				"host 13 11",
+				"listener 13 11"), events);
+	}
+}
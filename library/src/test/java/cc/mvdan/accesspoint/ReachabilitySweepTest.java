@@ -0,0 +1,202 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import cc.mvdan.accesspoint.WifiApControl.Client;
+
+public class ReachabilitySweepTest {
+
+	private static List<Client> clients(int n) {
+		List<Client> list = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			list.add(new Client(0xc0a82b02 + i, 0x020000000000L + i, Client.ARP_COMPLETE));
+		}
+		return list;
+	}
+
+	// Recorder checks that the sweep is never locked while calling it.
+	private static final class Recorder implements ReachabilitySweep.Listener {
+
+		ReachabilitySweep sweep;
+		final List<String> events = new ArrayList<>();
+
+		private void record(String event) {
+			assertFalse(Thread.holdsLock(sweep));
+			events.add(event);
+		}
+
+		public void onReachableClient(Client c) {
+			record("reachable " + c.ipAddr);
+		}
+
+		public void onTimeout(Client c) {
+			record("timeout " + c.ipAddr);
+		}
+
+		public void onComplete() {
+			record("complete");
+		}
+	}
+
+	// Pending holds the checks started so far, to be reported by the test.
+	private static final class Pending implements ReachabilitySweep.Checker {
+
+		final List<Integer> started = new ArrayList<>();
+
+		public void check(ReachabilitySweep sweep, int i, Client c) {
+			started.add(i);
+		}
+	}
+
+	@Test
+	public void window() {
+		Recorder rec = new Recorder();
+		Pending checks = new Pending();
+		ReachabilitySweep sweep = new ReachabilitySweep(clients(10), 0, rec, checks, 3);
+		rec.sweep = sweep;
+		sweep.start();
+		assertEquals(3, checks.started.size());
+		sweep.report(1, true);
+		assertEquals(4, checks.started.size());
+		for (int i = 0; i < 10; i++) {
+			if (i != 1) {
+				// each report starts the next check
+				assertTrue(checks.started.contains(i));
+				sweep.report(i, false);
+			}
+		}
+		assertTrue(sweep.isDone());
+		assertEquals(10, checks.started.size());
+		assertEquals(2, rec.events.size());
+		assertEquals("complete", rec.events.get(1));
+	}
+
+	// Concurrent counts the checks that are running at once, reporting
+	// each one when the test asks for it.
+	private static final class Concurrent implements ReachabilitySweep.Checker {
+
+		final List<Integer> running = new ArrayList<>();
+		int max;
+
+		public void check(ReachabilitySweep sweep, int i, Client c) {
+			running.add(i);
+			max = Math.max(max, running.size());
+		}
+
+		void reportOldest(ReachabilitySweep sweep) {
+			sweep.report(running.remove(0), false);
+		}
+	}
+
+	@Test
+	public void concurrentChecks() {
+		Recorder rec = new Recorder();
+		Concurrent checks = new Concurrent();
+		ReachabilitySweep sweep = new ReachabilitySweep(clients(300), 0, rec,
+				checks, ReachabilitySweep.DEFAULT_WINDOW);
+		rec.sweep = sweep;
+		sweep.start();
+		while (!checks.running.isEmpty()) {
+			checks.reportOldest(sweep);
+		}
+		assertTrue(sweep.isDone());
+		assertEquals(ReachabilitySweep.DEFAULT_WINDOW, checks.max);
+
+		// all in flight at once, as with PROBE_NIO
+		rec = new Recorder();
+		checks = new Concurrent();
+		sweep = new ReachabilitySweep(clients(300), 0, rec,
+				checks, ReachabilitySweep.UNBOUNDED_WINDOW);
+		rec.sweep = sweep;
+		sweep.start();
+		assertEquals(300, checks.running.size());
+		while (!checks.running.isEmpty()) {
+			checks.reportOldest(sweep);
+		}
+		assertTrue(sweep.isDone());
+		assertEquals(300, checks.max);
+	}
+
+	@Test
+	public void throwingListener() {
+		final List<String> events = new ArrayList<>();
+		Pending checks = new Pending();
+		ReachabilitySweep sweep = new ReachabilitySweep(clients(3), 0,
+				new ReachabilitySweep.Listener() {
+			public void onReachableClient(Client c) {
+				events.add("reachable " + c.ipAddr);
+				throw new IllegalStateException("listener bug");
+			}
+			public void onTimeout(Client c) {
+				events.add("timeout " + c.ipAddr);
+			}
+			public void onComplete() {
+				events.add("complete");
+			}
+		}, checks, 3);
+		sweep.start();
+		sweep.report(0, true);
+		sweep.report(1, true);
+		sweep.cancel();
+		// the events after each throw are still delivered
+		assertEquals(4, events.size());
+		assertEquals("timeout 192.168.43.4", events.get(2));
+		assertEquals("complete", events.get(3));
+	}
+
+	@Test
+	public void cancelStopsChecks() {
+		Recorder rec = new Recorder();
+		Pending checks = new Pending();
+		ReachabilitySweep sweep = new ReachabilitySweep(clients(10), 0, rec, checks, 2);
+		rec.sweep = sweep;
+		sweep.start();
+		sweep.cancel();
+		sweep.report(0, true);
+		sweep.report(1, true);
+		assertEquals(2, checks.started.size());
+		assertEquals(11, rec.events.size());
+		assertEquals("complete", rec.events.get(10));
+	}
+
+	@Test
+	public void immediateResults() {
+		Recorder rec = new Recorder();
+		ReachabilitySweep sweep = new ReachabilitySweep(clients(1000), 2, rec,
+				new ReachabilitySweep.Checker() {
+			public void check(ReachabilitySweep sweep, int i, Client c) {
+				// as if cached, without recursing for every client
+				sweep.report(i, i % 100 == 99);
+			}
+		}, 4);
+		rec.sweep = sweep;
+		sweep.start();
+		assertTrue(sweep.isDone());
+		assertEquals(2, sweep.getReachableCount());
+		// two reachable, 800 never checked, and onComplete
+		assertEquals(803, rec.events.size());
+	}
+}
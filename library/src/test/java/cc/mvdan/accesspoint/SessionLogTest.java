@@ -0,0 +1,31 @@
+/**
+ * Copyright 2015 Daniel Martí
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.mvdan.accesspoint;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SessionLogTest {
+
+	// core cannot see WifiApControl, so SessionLog keeps its own copy of
+	// the state in which clients can be connected.
+	@Test
+	public void apStateEnabled() {
+		assertEquals(WifiApControl.STATE_ENABLED, SessionLog.AP_STATE_ENABLED);
+	}
+}